@@ -0,0 +1,233 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded cache of balances in front of a MappedAccountStore, for books
+// too large to keep on the heap. Only the accounts in the cache cost memory
+// (about 64 bytes each); the rest stay in the store until they are used.
+//
+// The cache is split into one segment per lock stripe of the Bank, and a
+// segment is only ever touched with its stripe held, so the cache needs no
+// locks of its own. Each segment evicts its least recently used entry.
+// Balance changes stay in the cache (write-back) until their entry is
+// evicted or flush() is called; a checkpoint flushes before it records its
+// LSN. Entries carry the LSN of their last change, as store records do.
+//
+// Entries are numbered segment * segmentSize + i and stay valid while the
+// stripe is held; a later find() in the same segment may reuse them.
+class AccountCache {
+    private final MappedAccountStore store;
+    private final int segmentSize;
+    private final Segment[] segments;
+
+    private final int[] numbers;
+    private final int[] slots;
+    private final long[] balances;
+    private final long[] lsns;
+    private final byte[] types;
+    private final boolean[] dirty;
+    // Recency list per segment, most recent first.
+    private final int[] prev;
+    private final int[] next;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder writeBacks = new LongAdder();
+
+    AccountCache(MappedAccountStore store, int capacity, int segmentCount) {
+        checkCapacity(capacity, segmentCount);
+        this.store = store;
+        this.segmentSize = capacity / segmentCount;
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+        int entries = segmentSize * segmentCount;
+        numbers = new int[entries];
+        slots = new int[entries];
+        balances = new long[entries];
+        lsns = new long[entries];
+        types = new byte[entries];
+        dirty = new boolean[entries];
+        prev = new int[entries];
+        next = new int[entries];
+    }
+
+    // A transfer holds two accounts of one segment at once, so each segment needs room for two.
+    static void checkCapacity(int capacity, int segmentCount) {
+        if (capacity < 2 * segmentCount) {
+            throw new IllegalArgumentException("The cache must hold at least " + 2 * segmentCount + " accounts.");
+        }
+    }
+
+    // The account's entry, read from the store on a miss, or -1 if the store
+    // has no such account. Caller holds the segment's stripe.
+    int find(int segment, int accountNumber) {
+        Segment s = segments[segment];
+        int entry = s.index.get(accountNumber);
+        if (entry >= 0) {
+            hits.increment();
+            if (s.head != entry) {
+                unlink(s, entry);
+                linkFirst(s, entry);
+            }
+            return entry;
+        }
+        misses.increment();
+        int slot = store.slotOf(accountNumber);
+        if (slot < 0) {
+            return -1;
+        }
+        if (s.filled < segmentSize) {
+            entry = segment * segmentSize + s.filled++;
+        } else {
+            entry = s.tail;
+            unlink(s, entry);
+            s.index.remove(numbers[entry]);
+            writeBack(entry);
+            evictions.increment();
+        }
+        numbers[entry] = accountNumber;
+        slots[entry] = slot;
+        balances[entry] = store.balanceAt(slot);
+        lsns[entry] = store.lsnAt(slot);
+        types[entry] = store.typeAt(slot);
+        dirty[entry] = false;
+        s.index.put(accountNumber, entry);
+        linkFirst(s, entry);
+        return entry;
+    }
+
+    // The account's entry if it is cached, without reading the store, counting
+    // a hit or a miss, or changing its recency. Caller holds the segment's stripe.
+    int peek(int segment, int accountNumber) {
+        return segments[segment].index.get(accountNumber);
+    }
+
+    long balance(int entry) {
+        return balances[entry];
+    }
+
+    long lsn(int entry) {
+        return lsns[entry];
+    }
+
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    boolean isSavings(int entry) {
+        return types[entry] == MappedAccountStore.SAVINGS;
+    }
+
+    void setBalance(int entry, long balance, long lsn) {
+        balances[entry] = balance;
+        lsns[entry] = lsn;
+        dirty[entry] = true;
+    }
+
+    // Writes every changed balance to the store. Caller holds every stripe.
+    void flush() {
+        for (int segment = 0; segment < segments.length; segment++) {
+            int base = segment * segmentSize;
+            for (int entry = base; entry < base + segments[segment].filled; entry++) {
+                writeBack(entry);
+            }
+        }
+    }
+
+    // Re-reads cached balances after the store was changed directly, as an
+    // interest run does. Caller holds every stripe and has flushed first.
+    void reload() {
+        for (int segment = 0; segment < segments.length; segment++) {
+            int base = segment * segmentSize;
+            for (int entry = base; entry < base + segments[segment].filled; entry++) {
+                balances[entry] = store.balanceAt(slots[entry]);
+                lsns[entry] = store.lsnAt(slots[entry]);
+            }
+        }
+    }
+
+    private void writeBack(int entry) {
+        if (dirty[entry]) {
+            store.updateBalance(slots[entry], balances[entry], lsns[entry]);
+            dirty[entry] = false;
+            writeBacks.increment();
+        }
+    }
+
+    private void unlink(Segment s, int entry) {
+        int p = prev[entry];
+        int n = next[entry];
+        if (p >= 0) {
+            next[p] = n;
+        } else {
+            s.head = n;
+        }
+        if (n >= 0) {
+            prev[n] = p;
+        } else {
+            s.tail = p;
+        }
+    }
+
+    private void linkFirst(Segment s, int entry) {
+        prev[entry] = -1;
+        next[entry] = s.head;
+        if (s.head >= 0) {
+            prev[s.head] = entry;
+        } else {
+            s.tail = entry;
+        }
+        s.head = entry;
+    }
+
+    int capacity() {
+        return numbers.length;
+    }
+
+    // Read without the stripes, so only approximate while accounts are being loaded.
+    long size() {
+        long size = 0;
+        for (Segment s : segments) {
+            size += s.filled;
+        }
+        return size;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    long writeBacks() {
+        return writeBacks.sum();
+    }
+
+    @Override
+    public String toString() {
+        long h = hits();
+        long m = misses();
+        return String.format("Account cache: %d of %d accounts, %d hits, %d misses (%.1f%% hit), %d evictions, "
+                + "%d write-backs", size(), capacity(), h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), evictions(),
+                writeBacks());
+    }
+
+    private static class Segment {
+        final IntIntMap index;
+        int head = -1;
+        int tail = -1;
+        // Entries handed out so far; once the segment is full they are reused.
+        int filled;
+
+        Segment(int size) {
+            index = new IntIntMap(size);
+        }
+    }
+}
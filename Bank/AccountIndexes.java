@@ -0,0 +1,262 @@
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Secondary indexes for finding customers by something other than their
+// account number:
+//  - name prefix: a binary search over AccountOrder's cached name order;
+//  - address word (a city, a street): a hash index from each lower-cased
+//    word of the address to the rows that contain it, in row order;
+//  - account type: a bitmap of rows per type, with a running count per
+//    64-row word so the n-th match is found without scanning.
+//
+// Like the orders, the indexes catch up with rows appended since the last
+// query instead of being rebuilt. Name, address and type never change once
+// an account is opened; balances do, and no index covers them. Results are
+// read-only views over row numbers that are not affected by accounts added
+// later, so pages can be taken with subList() without copying anything.
+class AccountIndexes {
+    private final AccountTable rows;
+    private final AccountOrder order;
+
+    private int indexedRows;
+    private final Map<String, Postings> addressWords = new HashMap<>();
+    private final Bitmap[] types = { new Bitmap(), new Bitmap() };
+
+    AccountIndexes(AccountTable rows, AccountOrder order) {
+        this.rows = rows;
+        this.order = order;
+    }
+
+    // Accounts whose name starts with `prefix`, in name order. Names are
+    // compared as UTF-8 bytes, so the match is case-sensitive.
+    List<BankAccount> byNamePrefix(String prefix) {
+        int[] byName = order.order(AccountOrder.Key.NAME);
+        int[] range = nameRange(byName, prefix.getBytes(StandardCharsets.UTF_8));
+        return rows.rows(byName, range[0], range[1]);
+    }
+
+    // Accounts with `word` anywhere in their address, ignoring case, in the order they were opened.
+    synchronized List<BankAccount> byAddress(String word) {
+        catchUp();
+        Postings postings = addressWords.get(word.toLowerCase(Locale.ROOT));
+        return postings == null ? List.of() : rows.rows(postings.rows, 0, postings.size);
+    }
+
+    // Accounts of type "savings" or "current", in the order they were opened.
+    synchronized List<BankAccount> byType(String accountType) {
+        Bitmap bitmap = bitmapFor(accountType);
+        if (bitmap == null) {
+            return List.of();
+        }
+        catchUp();
+        return bitmap.view(rows);
+    }
+
+    // Accounts matching every given key; a null key matches everything.
+    // In name order when a prefix is given, otherwise in the order they were opened.
+    List<BankAccount> search(String namePrefix, String addressWord, String accountType) {
+        int[] byName = namePrefix != null ? order.order(AccountOrder.Key.NAME) : null;
+        synchronized (this) {
+            catchUp();
+            Postings postings = null;
+            if (addressWord != null) {
+                postings = addressWords.get(addressWord.toLowerCase(Locale.ROOT));
+                if (postings == null) {
+                    return List.of();
+                }
+            }
+            Bitmap bitmap = null;
+            if (accountType != null) {
+                bitmap = bitmapFor(accountType);
+                if (bitmap == null) {
+                    return List.of();
+                }
+            }
+            int[] candidates;
+            int from;
+            int to;
+            if (byName != null) {
+                int[] range = nameRange(byName, namePrefix.getBytes(StandardCharsets.UTF_8));
+                candidates = byName;
+                from = range[0];
+                to = range[1];
+            } else if (postings != null) {
+                candidates = postings.rows;
+                from = 0;
+                to = postings.size;
+            } else {
+                candidates = null;
+                from = 0;
+                to = indexedRows;
+            }
+            int[] matches = new int[to - from];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int row = candidates != null ? candidates[i] : i;
+                if (row < indexedRows && (postings == null || postings.contains(row))
+                        && (bitmap == null || bitmap.contains(row))) {
+                    matches[count++] = row;
+                }
+            }
+            return rows.rows(matches, 0, count);
+        }
+    }
+
+    private Bitmap bitmapFor(String accountType) {
+        byte code = MappedAccountStore.typeCode(accountType);
+        return MappedAccountStore.typeName(code).equals(accountType) ? types[code] : null;
+    }
+
+    // Positions [from, to) of byName whose names start with prefix. Names
+    // below the prefix sort before those that start with it, and those above
+    // after, so both ends are binary searches.
+    private int[] nameRange(int[] byName, byte[] prefix) {
+        return new int[] { firstAbove(byName, prefix, -1), firstAbove(byName, prefix, 0) };
+    }
+
+    private int firstAbove(int[] byName, byte[] prefix, int bound) {
+        int low = 0;
+        int high = byName.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.signum(rows.compareNamePrefix(byName[mid], prefix)) <= bound) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void catchUp() {
+        int count = rows.size();
+        for (int row = indexedRows; row < count; row++) {
+            types[rows.type(row)].add(row);
+            for (String word : words(rows.get(row).address())) {
+                addressWords.computeIfAbsent(word, w -> new Postings()).add(row);
+            }
+        }
+        indexedRows = count;
+    }
+
+    // The lower-cased words of an address. House numbers and other
+    // all-digit words are left out; nobody searches for "45".
+    static List<String> words(String address) {
+        List<String> words = new ArrayList<>(4);
+        int start = -1;
+        boolean letters = false;
+        for (int i = 0; i <= address.length(); i++) {
+            boolean inWord = i < address.length() && Character.isLetterOrDigit(address.charAt(i));
+            if (inWord) {
+                if (start < 0) {
+                    start = i;
+                    letters = false;
+                }
+                letters |= Character.isLetter(address.charAt(i));
+            } else if (start >= 0) {
+                if (letters) {
+                    words.add(address.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Ascending rows for one address word. Rows are only ever added at the
+    // end; growing copies the array, so a view handed out earlier keeps its own.
+    private static class Postings {
+        int[] rows = new int[2];
+        int size;
+
+        void add(int row) {
+            if (size > 0 && rows[size - 1] == row) {
+                return; // the word appears twice in one address
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        boolean contains(int row) {
+            return Arrays.binarySearch(rows, 0, size, row) >= 0;
+        }
+    }
+
+    // One bit per row. ranks[w] counts the set bits in words before w, so
+    // the n-th set row is a binary search over ranks and a select in one word.
+    private static class Bitmap {
+        long[] words = new long[0];
+        int[] ranks = new int[0];
+        int lastWord = -1;
+        int count;
+
+        // Rows must be added in ascending order.
+        void add(int row) {
+            int w = row >>> 6;
+            if (w >= words.length) {
+                int length = Math.max(w + 1, words.length * 2);
+                words = Arrays.copyOf(words, length);
+                ranks = Arrays.copyOf(ranks, length);
+            }
+            while (lastWord < w) {
+                ranks[++lastWord] = count;
+            }
+            words[w] |= 1L << row;
+            count++;
+        }
+
+        boolean contains(int row) {
+            int w = row >>> 6;
+            return w < words.length && (words[w] & (1L << row)) != 0;
+        }
+
+        // Set bits added later are all past the ones seen here, so the view
+        // only has to remember how many there were.
+        List<BankAccount> view(AccountTable table) {
+            long[] words = this.words;
+            int[] ranks = this.ranks;
+            int lastWord = this.lastWord;
+            int count = this.count;
+            return new AbstractList<BankAccount>() {
+                @Override
+                public BankAccount get(int index) {
+                    if (index < 0 || index >= count) {
+                        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+                    }
+                    return table.get(select(words, ranks, lastWord, index));
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+
+        private static int select(long[] words, int[] ranks, int lastWord, int index) {
+            int low = 0;
+            int high = lastWord;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (ranks[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            long word = words[low];
+            for (int skip = index - ranks[low]; skip > 0; skip--) {
+                word &= word - 1;
+            }
+            return (low << 6) + Long.numberOfTrailingZeros(word);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands out account numbers: a sequence number followed by a Luhn check
+// digit, so sequence 1000 becomes account 10009 and a mistyped digit or most
+// swaps of two neighbouring digits are caught by isValid().
+//
+// Allocation is one atomic increment. The high-water mark is persisted in
+// blocks: before handing out a sequence at or past the persisted mark, the
+// mark is moved BLOCK further and forced to disk, so a restart resumes past
+// every number that could have been issued. Numbers in an unused tail of a
+// block are skipped after a crash, never reused.
+class AccountNumbers {
+    private static final int BLOCK = 1000;
+    // Sequences below this give numbers of five digits or more, clear of the
+    // four-digit numbers issued at random by earlier versions.
+    private static final int FIRST_SEQUENCE = 1000;
+    private static final int MAX_SEQUENCE = (Integer.MAX_VALUE - 9) / 10;
+
+    private final AtomicInteger next = new AtomicInteger(FIRST_SEQUENCE);
+    // Every sequence below this is covered by the mark on disk.
+    private volatile int reserved = Integer.MAX_VALUE;
+    private File file;
+
+    // Starts persisting the high-water mark to `file`, resuming from the mark already there.
+    synchronized void open(File file) throws IOException {
+        this.file = file;
+        reserved = 0;
+        if (file.exists()) {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+            try {
+                observeSequence(Integer.parseInt(text));
+            } catch (NumberFormatException e) {
+                throw new IOException("Not an account number mark: " + file);
+            }
+        }
+    }
+
+    // Makes sure no later allocation can return an existing account's number.
+    void observe(int accountNumber) {
+        if (accountNumber > 0) {
+            observeSequence(accountNumber / 10 + 1);
+        }
+    }
+
+    private void observeSequence(int sequence) {
+        next.accumulateAndGet(sequence, Math::max);
+    }
+
+    int allocate() {
+        int sequence = next.getAndIncrement();
+        if (sequence > MAX_SEQUENCE || sequence < 0) {
+            next.set(Integer.MIN_VALUE); // keeps later calls failing instead of wrapping around
+            throw new IllegalStateException("Account numbers exhausted.");
+        }
+        if (sequence >= reserved) {
+            reserve(sequence);
+        }
+        return sequence * 10 + checkDigit(sequence);
+    }
+
+    private synchronized void reserve(int sequence) {
+        if (sequence < reserved) {
+            return; // another thread moved the mark while this one waited
+        }
+        int mark = (int) Math.min((long) sequence + BLOCK, MAX_SEQUENCE + 1L);
+        try {
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write((mark + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            reserved = mark;
+        } catch (IOException e) {
+            // The number is still unique in this run; the next allocation retries the write.
+            System.err.println("Account number mark write failed: " + e.getMessage());
+        }
+    }
+
+    // The digit that makes the Luhn sum of sequence followed by it a multiple of 10.
+    static int checkDigit(int sequence) {
+        int sum = 0;
+        boolean doubled = true;
+        for (int n = sequence; n > 0; n /= 10) {
+            int d = n % 10;
+            if (doubled) {
+                d *= 2;
+                if (d > 9) {
+                    d -= 9;
+                }
+            }
+            sum += d;
+            doubled = !doubled;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    static boolean isValid(int accountNumber) {
+        return accountNumber >= 10 && checkDigit(accountNumber / 10) == accountNumber % 10;
+    }
+}
@@ -0,0 +1,246 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Cached listing orders over an AccountTable, one int[] permutation of row
+// numbers per sort key. Rows are only ever appended, so a cached order
+// stays valid: rows added since it was built are sorted on their own and
+// merged in the next time the order is asked for, instead of re-sorting the
+// whole book. Balance is not a sort key, so balance changes never touch an
+// order. Every order is stable: equal keys keep insertion order.
+class AccountOrder {
+    enum Key {
+        ACCOUNT_NUMBER, NAME, ACCOUNT_TYPE
+    }
+
+    // Above this many rows a full name sort is split across the fork-join pool.
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private final AccountTable rows;
+
+    private final int[][] orders = new int[Key.values().length][];
+    private final int[] orderedRows = new int[Key.values().length];
+    // Shared merge buffer, reused across calls; only touched while holding this object's monitor.
+    private int[] scratch = new int[0];
+    private long[] packedScratch = new long[0];
+
+    public AccountOrder(AccountTable rows) {
+        this.rows = rows;
+    }
+
+    // Accounts in key order. The result is a read-only view that is not
+    // affected by accounts added later.
+    public List<BankAccount> sorted(Key key) {
+        int[] order = order(key);
+        return rows.rows(order, order.length);
+    }
+
+    // The row numbers of every account so far, in key order. The array is
+    // never written again once returned.
+    synchronized int[] order(Key key) {
+        int count = rows.size();
+        int k = key.ordinal();
+        int[] order = orders[k];
+        int done = orderedRows[k];
+        if (order == null || count - done > count / 4) {
+            order = fullSort(key, rows, count);
+        } else if (done < count) {
+            order = mergeNewRows(key, rows, order, done, count);
+        }
+        orders[k] = order;
+        orderedRows[k] = count;
+        return order;
+    }
+
+    private int[] fullSort(Key key, AccountTable rows, int count) {
+        switch (key) {
+            case ACCOUNT_NUMBER:
+                return sortByNumber(rows, 0, count);
+            case ACCOUNT_TYPE:
+                return partitionByType(rows, 0, count);
+            default:
+                int[] order = new int[count];
+                for (int i = 0; i < count; i++) {
+                    order[i] = i;
+                }
+                ensureScratch(count);
+                if (count >= PARALLEL_THRESHOLD) {
+                    ForkJoinPool.commonPool().invoke(new NameSort(rows, order, scratch, 0, count));
+                } else {
+                    sortByName(rows, order, scratch, 0, count);
+                }
+                return order;
+        }
+    }
+
+    // Packs (accountNumber, position) into one long so a primitive parallel
+    // sort orders by number and then by position, which keeps it stable.
+    private int[] sortByNumber(AccountTable rows, int from, int to) {
+        int count = to - from;
+        if (packedScratch.length < count) {
+            packedScratch = new long[Math.max(count, packedScratch.length * 2)];
+        }
+        long[] packed = packedScratch;
+        for (int i = 0; i < count; i++) {
+            packed[i] = ((long) rows.number(from + i) << 32) | (from + i);
+        }
+        Arrays.parallelSort(packed, 0, count);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+
+    // Savings accounts first, then everything else, each group in row order.
+    private static int[] partitionByType(AccountTable rows, int from, int to) {
+        int savings = 0;
+        for (int i = from; i < to; i++) {
+            if (rows.isSavings(i)) {
+                savings++;
+            }
+        }
+        int[] order = new int[to - from];
+        int s = 0;
+        int other = savings;
+        for (int i = from; i < to; i++) {
+            if (rows.isSavings(i)) {
+                order[s++] = i;
+            } else {
+                order[other++] = i;
+            }
+        }
+        return order;
+    }
+
+    // Top-down merge sort of order[from, to) by name, using scratch[from, to) as the merge buffer.
+    private static void sortByName(AccountTable rows, int[] order, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortByName(rows, order, scratch, from, mid);
+        sortByName(rows, order, scratch, mid, to);
+        mergeByName(rows, order, scratch, from, mid, to);
+    }
+
+    private static void mergeByName(AccountTable rows, int[] order, int[] scratch, int from, int mid, int to) {
+        if (rows.compareNames(order[mid - 1], order[mid]) <= 0) {
+            return; // halves already in order
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        int k = from;
+        while (i < mid && j < to) {
+            order[k++] = rows.compareNames(scratch[j], scratch[i]) < 0 ? scratch[j++] : scratch[i++];
+        }
+        while (i < mid) {
+            order[k++] = scratch[i++];
+        }
+        while (j < to) {
+            order[k++] = scratch[j++];
+        }
+    }
+
+    private static class NameSort extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient AccountTable rows;
+        private final int[] order;
+        private final int[] scratch;
+        private final int from;
+        private final int to;
+
+        NameSort(AccountTable rows, int[] order, int[] scratch, int from, int to) {
+            this.rows = rows;
+            this.order = order;
+            this.scratch = scratch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < PARALLEL_THRESHOLD) {
+                sortByName(rows, order, scratch, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new NameSort(rows, order, scratch, from, mid), new NameSort(rows, order, scratch, mid, to));
+            mergeByName(rows, order, scratch, from, mid, to);
+        }
+    }
+
+    // Sorts only rows [done, count) and merges them into the existing order.
+    // New rows always sit after old ones on equal keys, so the merge stays stable.
+    private int[] mergeNewRows(Key key, AccountTable rows, int[] order, int done, int count) {
+        int added = count - done;
+        int[] fresh;
+        if (key == Key.ACCOUNT_TYPE) {
+            return mergeByType(rows, order, done, count);
+        } else if (key == Key.ACCOUNT_NUMBER) {
+            fresh = sortByNumber(rows, done, count);
+        } else {
+            fresh = new int[added];
+            for (int i = 0; i < added; i++) {
+                fresh[i] = done + i;
+            }
+            ensureScratch(added);
+            sortByName(rows, fresh, scratch, 0, added);
+        }
+        int[] merged = new int[count];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < done && j < added) {
+            merged[k++] = compare(key, rows, fresh[j], order[i]) < 0 ? fresh[j++] : order[i++];
+        }
+        while (i < done) {
+            merged[k++] = order[i++];
+        }
+        while (j < added) {
+            merged[k++] = fresh[j++];
+        }
+        return merged;
+    }
+
+    // Both orders are already split into savings then the rest, so the merge
+    // is four block copies around the two split points.
+    private static int[] mergeByType(AccountTable rows, int[] order, int done, int count) {
+        int[] fresh = partitionByType(rows, done, count);
+        int oldSavings = firstNonSavings(rows, order);
+        int newSavings = firstNonSavings(rows, fresh);
+        int[] merged = new int[count];
+        System.arraycopy(order, 0, merged, 0, oldSavings);
+        System.arraycopy(fresh, 0, merged, oldSavings, newSavings);
+        System.arraycopy(order, oldSavings, merged, oldSavings + newSavings, done - oldSavings);
+        System.arraycopy(fresh, newSavings, merged, done + newSavings, fresh.length - newSavings);
+        return merged;
+    }
+
+    private static int firstNonSavings(AccountTable rows, int[] order) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (rows.isSavings(order[mid])) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(Key key, AccountTable rows, int a, int b) {
+        return key == Key.ACCOUNT_NUMBER ? Integer.compare(rows.number(a), rows.number(b)) : rows.compareNames(a, b);
+    }
+
+    private void ensureScratch(int size) {
+        if (scratch.length < size) {
+            scratch = new int[Math.max(size, scratch.length * 2)];
+        }
+    }
+}
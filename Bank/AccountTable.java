@@ -0,0 +1,333 @@
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+// The accounts, stored by column: number, balance and type in primitive
+// arrays, and name and address as a (segment, offset, length) reference into
+// a BodySegment -- the mapped snapshot file the account was loaded from, or an
+// off-heap arena for accounts opened since. There is no object per account.
+//
+// Columns are split into fixed-size pages, so growing only copies the page
+// directories. Appends need the caller's exclusive lock and rowOf() at least
+// a shared one. Any row below a size() the reader has seen can be read
+// without locking.
+//
+// Balance pages are copy-on-write against snapshots: snapshot() captures the
+// current pages in O(pages) and starts a new epoch, and the first write to a
+// page in the new epoch copies it, so a snapshot never sees a later balance.
+// Every other column is immutable below size() and shared with snapshots.
+//
+// As a List, each row is presented as a detached BankAccount whose balance is
+// copied at get() time.
+class AccountTable extends AbstractList<BankAccount> implements RandomAccess {
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int ARENA_SIZE = 1 << 20;
+
+    private int[][] numbers = new int[0][];
+    private BalancePage[] balances = new BalancePage[0];
+    // Bumped by snapshot(); a page of an earlier epoch may be shared with a snapshot.
+    private volatile long epoch;
+    private byte[][] types = new byte[0][];
+    private short[][] segmentIds = new short[0][];
+    private int[][] offsets = new int[0][];
+    private int[][] lengths = new int[0][];
+    // Written last by append(), so a reader that sees a row count sees the rows.
+    private volatile int size;
+
+    private final IntIntMap rowOf = new IntIntMap(16);
+    private BodySegment[] segments = new BodySegment[4];
+    private int segmentCount;
+    // Consecutive rows nearly always come from the same segment.
+    private int lastSegment = -1;
+    private int arena = -1;
+
+    // Appends an account and returns its row, or -1 if the number is already taken.
+    int append(BankAccount account) {
+        if (rowOf.get(account.accountNumber) >= 0) {
+            return -1;
+        }
+        int row = size;
+        int page = row >>> PAGE_BITS;
+        int i = row & PAGE_MASK;
+        if (page == numbers.length) {
+            addPage();
+        }
+        numbers[page][i] = account.accountNumber;
+        setBalance(row, account.balance);
+        types[page][i] = MappedAccountStore.typeCode(account.accountType);
+        if (account.bodySource != null) {
+            segmentIds[page][i] = (short) segmentId(account.bodySource);
+            offsets[page][i] = account.bodyOffset;
+            lengths[page][i] = account.bodyLength;
+        } else {
+            byte[] name = account.name().getBytes(StandardCharsets.UTF_8);
+            byte[] address = account.address().getBytes(StandardCharsets.UTF_8);
+            int offset = arena < 0 ? -1 : segments[arena].append(name, address);
+            if (offset < 0) {
+                arena = segmentId(BodySegment.allocate(Math.max(ARENA_SIZE, name.length + 1 + address.length)));
+                offset = segments[arena].append(name, address);
+            }
+            segmentIds[page][i] = (short) arena;
+            offsets[page][i] = offset;
+            lengths[page][i] = name.length + 1 + address.length;
+        }
+        rowOf.put(account.accountNumber, row);
+        size = row + 1;
+        return row;
+    }
+
+    private void addPage() {
+        int pages = numbers.length + 1;
+        numbers = Arrays.copyOf(numbers, pages);
+        addBalancePage(pages);
+        types = Arrays.copyOf(types, pages);
+        segmentIds = Arrays.copyOf(segmentIds, pages);
+        offsets = Arrays.copyOf(offsets, pages);
+        lengths = Arrays.copyOf(lengths, pages);
+        numbers[pages - 1] = new int[PAGE_SIZE];
+        types[pages - 1] = new byte[PAGE_SIZE];
+        segmentIds[pages - 1] = new short[PAGE_SIZE];
+        offsets[pages - 1] = new int[PAGE_SIZE];
+        lengths[pages - 1] = new int[PAGE_SIZE];
+    }
+
+    // Synchronized with copyPage(), so a page copied while the directory
+    // grows is never left behind in the old directory.
+    private synchronized void addBalancePage(int pages) {
+        balances = Arrays.copyOf(balances, pages);
+        balances[pages - 1] = new BalancePage(new long[PAGE_SIZE], epoch);
+    }
+
+    private int segmentId(BodySegment segment) {
+        if (lastSegment >= 0 && segments[lastSegment] == segment) {
+            return lastSegment;
+        }
+        for (int id = segmentCount - 1; id >= 0; id--) {
+            if (segments[id] == segment) {
+                return lastSegment = id;
+            }
+        }
+        if (segmentCount > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many body segments");
+        }
+        if (segmentCount == segments.length) {
+            segments = Arrays.copyOf(segments, segmentCount * 2);
+        }
+        segments[segmentCount] = segment;
+        return lastSegment = segmentCount++;
+    }
+
+    // The account's row, or -1.
+    int rowOf(int accountNumber) {
+        return rowOf.get(accountNumber);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    int number(int row) {
+        return numbers[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    long balance(int row) {
+        return balances[row >>> PAGE_BITS].values[row & PAGE_MASK];
+    }
+
+    // Writers of one row must be serialized by the caller, as before;
+    // writers of different rows in the same page need not be.
+    void setBalance(int row, long balance) {
+        int p = row >>> PAGE_BITS;
+        BalancePage page = balances[p];
+        if (page.epoch != epoch) {
+            page = copyPage(p);
+        }
+        page.values[row & PAGE_MASK] = balance;
+    }
+
+    // Only one copy is made per page and epoch, and a page of the current
+    // epoch is never replaced, so a writer holding one writes to the live page.
+    private synchronized BalancePage copyPage(int p) {
+        BalancePage page = balances[p];
+        if (page.epoch != epoch) {
+            page = new BalancePage(page.values.clone(), epoch);
+            balances[p] = page;
+        }
+        return page;
+    }
+
+    // The balances as they are now. The caller must shut out every writer
+    // while this runs; afterwards writers carry on and the snapshot stays put.
+    synchronized Snapshot snapshot() {
+        long[][] pages = new long[balances.length][];
+        for (int p = 0; p < pages.length; p++) {
+            pages[p] = balances[p].values;
+        }
+        epoch++;
+        return new Snapshot(pages, size, numbers, types, segmentIds, offsets, lengths, segments);
+    }
+
+    boolean isSavings(int row) {
+        return types[row >>> PAGE_BITS][row & PAGE_MASK] == MappedAccountStore.SAVINGS;
+    }
+
+    // The account type as a MappedAccountStore type code.
+    byte type(int row) {
+        return types[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    // Orders two rows by name without decoding either one. UTF-8 byte order
+    // is code point order, the same as String.compareTo for every name
+    // without characters outside the Basic Multilingual Plane.
+    int compareNames(int a, int b) {
+        int pageA = a >>> PAGE_BITS;
+        int pageB = b >>> PAGE_BITS;
+        int ia = a & PAGE_MASK;
+        int ib = b & PAGE_MASK;
+        return BodySegment.compareNames(segments[segmentIds[pageA][ia]], offsets[pageA][ia], lengths[pageA][ia],
+                segments[segmentIds[pageB][ib]], offsets[pageB][ib], lengths[pageB][ib]);
+    }
+
+    // Negative if the row's name sorts before every name starting with
+    // `prefix`, zero if it starts with it, positive if it sorts after.
+    int compareNamePrefix(int row, byte[] prefix) {
+        int page = row >>> PAGE_BITS;
+        int i = row & PAGE_MASK;
+        return segments[segmentIds[page][i]].compareNamePrefix(offsets[page][i], lengths[page][i], prefix);
+    }
+
+    @Override
+    public BankAccount get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+        return account(row, balance(row));
+    }
+
+    private BankAccount account(int row, long balance) {
+        return account(row, balance, numbers, types, segmentIds, offsets, lengths, segments);
+    }
+
+    private static BankAccount account(int row, long balance, int[][] numbers, byte[][] types,
+            short[][] segmentIds, int[][] offsets, int[][] lengths, BodySegment[] segments) {
+        int page = row >>> PAGE_BITS;
+        int i = row & PAGE_MASK;
+        return new BankAccount(segments[segmentIds[page][i]], offsets[page][i], lengths[page][i],
+                MappedAccountStore.typeName(types[page][i]), numbers[page][i], balance);
+    }
+
+    // The given rows, in the given order, as detached accounts.
+    List<BankAccount> rows(int[] rows, int count) {
+        return rows(rows, 0, count);
+    }
+
+    List<BankAccount> rows(int[] rows, int from, int to) {
+        return new AbstractList<BankAccount>() {
+            @Override
+            public BankAccount get(int index) {
+                if (index < 0 || index >= to - from) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to - from));
+                }
+                return AccountTable.this.get(rows[from + index]);
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    private static final class BalancePage {
+        final long[] values;
+        final long epoch;
+
+        BalancePage(long[] values, long epoch) {
+            this.values = values;
+            this.epoch = epoch;
+        }
+    }
+
+    // The table as of one instant: the rows there were then, with the
+    // balances they had then. Reading it takes no lock and never holds up a
+    // writer. It keeps the column directories of that instant, so an append
+    // that grows them meanwhile is never seen half-done from another thread.
+    class Snapshot extends AbstractList<BankAccount> implements RandomAccess {
+        private final long[][] pages;
+        private final int size;
+        private final int[][] numbers;
+        private final byte[][] types;
+        private final short[][] segmentIds;
+        private final int[][] offsets;
+        private final int[][] lengths;
+        private final BodySegment[] segments;
+
+        private Snapshot(long[][] pages, int size, int[][] numbers, byte[][] types, short[][] segmentIds,
+                int[][] offsets, int[][] lengths, BodySegment[] segments) {
+            this.pages = pages;
+            this.size = size;
+            this.numbers = numbers;
+            this.types = types;
+            this.segmentIds = segmentIds;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.segments = segments;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        long balance(int row) {
+            return pages[row >>> PAGE_BITS][row & PAGE_MASK];
+        }
+
+        int number(int row) {
+            return numbers[row >>> PAGE_BITS][row & PAGE_MASK];
+        }
+
+        byte type(int row) {
+            return types[row >>> PAGE_BITS][row & PAGE_MASK];
+        }
+
+        int pageCount() {
+            return (size + PAGE_SIZE - 1) >>> PAGE_BITS;
+        }
+
+        int pageSize() {
+            return PAGE_SIZE;
+        }
+
+        @Override
+        public BankAccount get(int row) {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+            }
+            return account(row, balance(row), numbers, types, segmentIds, offsets, lengths, segments);
+        }
+
+        // The given rows, all below size(), in the given order.
+        List<BankAccount> rows(int[] rows, int count) {
+            return new AbstractList<BankAccount>() {
+                @Override
+                public BankAccount get(int index) {
+                    if (index < 0 || index >= count) {
+                        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+                    }
+                    return Snapshot.this.get(rows[index]);
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+    }
+}
@@ -1,366 +1,1853 @@
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import javax.management.JMException;
+
+// Customer relationship graph: one undirected edge per pair of accounts that
+// have transferred money between them, weighted by transfer count and volume.
+// Repeat transfers only bump the weights, so memory grows with the number of
+// distinct relationships rather than with transaction volume.
+//
+// Edges are kept in flat arrays and found through an open-addressing map
+// keyed by the (low, high) account pair. Queries read a CSR adjacency
+// (offsets + edge ids per vertex), rebuilt only after new edges appear.
+class CustomerGraph {
+    private final IntIntMap vertexOf;
+    private int[] vertexAccount;
+    private int vertexCount;
+
+    private int[] edgeLow;
+    private int[] edgeHigh;
+    private long[] edgeCount;
+    private long[] edgeVolume;
+    private int edgeTotal;
+
+    private long[] pairKeys;
+    private int[] pairEdges;
+    private int pairMask;
+
+    private int[] offsets = new int[1];
+    private int[] adjacency = new int[0];
+    private boolean adjacencyStale;
+
+    public CustomerGraph(int expectedCustomers) {
+        int capacity = Math.max(16, expectedCustomers);
+        vertexOf = new IntIntMap(capacity);
+        vertexAccount = new int[capacity];
+        edgeLow = new int[capacity];
+        edgeHigh = new int[capacity];
+        edgeCount = new long[capacity];
+        edgeVolume = new long[capacity];
+        int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        pairKeys = new long[slots];
+        pairEdges = new int[slots];
+        Arrays.fill(pairEdges, -1);
+        pairMask = slots - 1;
+    }
+
+    public synchronized void recordTransfer(int fromAccount, int toAccount, long amount) {
+        int a = vertex(fromAccount);
+        int b = vertex(toAccount);
+        int edge = edge(Math.min(a, b), Math.max(a, b));
+        edgeCount[edge]++;
+        edgeVolume[edge] += amount;
+    }
+
+    private int vertex(int accountNumber) {
+        int v = vertexOf.get(accountNumber);
+        if (v < 0) {
+            if (vertexCount == vertexAccount.length) {
+                vertexAccount = Arrays.copyOf(vertexAccount, vertexCount * 2);
+            }
+            v = vertexCount++;
+            vertexAccount[v] = accountNumber;
+            vertexOf.put(accountNumber, v);
+        }
+        return v;
+    }
+
+    private static int pairSlot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int edge(int low, int high) {
+        long key = ((long) low << 32) | high;
+        int i = pairSlot(key, pairMask);
+        while (pairEdges[i] != -1) {
+            if (pairKeys[i] == key) {
+                return pairEdges[i];
+            }
+            i = (i + 1) & pairMask;
+        }
+        if (edgeTotal == edgeLow.length) {
+            int capacity = edgeTotal * 2;
+            edgeLow = Arrays.copyOf(edgeLow, capacity);
+            edgeHigh = Arrays.copyOf(edgeHigh, capacity);
+            edgeCount = Arrays.copyOf(edgeCount, capacity);
+            edgeVolume = Arrays.copyOf(edgeVolume, capacity);
+        }
+        int edge = edgeTotal++;
+        edgeLow[edge] = low;
+        edgeHigh[edge] = high;
+        pairKeys[i] = key;
+        pairEdges[i] = edge;
+        adjacencyStale = true;
+        if (edgeTotal * 2 > pairEdges.length) {
+            resizePairs(pairEdges.length * 2);
+        }
+        return edge;
+    }
+
+    private void resizePairs(int slots) {
+        long[] oldKeys = pairKeys;
+        int[] oldEdges = pairEdges;
+        pairKeys = new long[slots];
+        pairEdges = new int[slots];
+        Arrays.fill(pairEdges, -1);
+        pairMask = slots - 1;
+        for (int i = 0; i < oldEdges.length; i++) {
+            if (oldEdges[i] != -1) {
+                int j = pairSlot(oldKeys[i], pairMask);
+                while (pairEdges[j] != -1) {
+                    j = (j + 1) & pairMask;
+                }
+                pairKeys[j] = oldKeys[i];
+                pairEdges[j] = oldEdges[i];
+            }
+        }
+    }
+
+    // Rebuilds the CSR adjacency: each edge is listed under both of its vertices.
+    private void buildAdjacency() {
+        offsets = new int[vertexCount + 1];
+        for (int e = 0; e < edgeTotal; e++) {
+            offsets[edgeLow[e] + 1]++;
+            offsets[edgeHigh[e] + 1]++;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        adjacency = new int[edgeTotal * 2];
+        int[] next = Arrays.copyOf(offsets, vertexCount);
+        for (int e = 0; e < edgeTotal; e++) {
+            adjacency[next[edgeLow[e]]++] = e;
+            adjacency[next[edgeHigh[e]]++] = e;
+        }
+        adjacencyStale = false;
+    }
+
+    private int other(int edge, int v) {
+        return edgeLow[edge] == v ? edgeHigh[edge] : edgeLow[edge];
+    }
+
+    // Accounts this account has transferred money to or from.
+    public synchronized int[] neighbors(int accountNumber) {
+        int v = vertexOf.get(accountNumber);
+        if (v < 0) {
+            return new int[0];
+        }
+        if (adjacencyStale) {
+            buildAdjacency();
+        }
+        int[] result = new int[offsets[v + 1] - offsets[v]];
+        for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+            result[i - offsets[v]] = vertexAccount[other(adjacency[i], v)];
+        }
+        return result;
+    }
+
+    // Up to k counterparties with the largest transfer volume, largest first.
+    // Keeps a k-entry min-heap of edges, so it costs O(degree * log k).
+    public synchronized int[] topCounterparties(int accountNumber, int k) {
+        int v = vertexOf.get(accountNumber);
+        if (v < 0 || k <= 0) {
+            return new int[0];
+        }
+        if (adjacencyStale) {
+            buildAdjacency();
+        }
+        int[] heap = new int[Math.min(k, offsets[v + 1] - offsets[v])];
+        int size = 0;
+        for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+            int edge = adjacency[i];
+            if (size < heap.length) {
+                heap[size] = edge;
+                siftUp(heap, size++);
+            } else if (edgeVolume[edge] > edgeVolume[heap[0]]) {
+                heap[0] = edge;
+                siftDown(heap, size);
+            }
+        }
+        int[] result = new int[size];
+        while (size > 0) {
+            result[--size] = vertexAccount[other(heap[0], v)];
+            heap[0] = heap[size];
+            siftDown(heap, size);
+        }
+        return result;
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (edgeVolume[heap[parent]] <= edgeVolume[heap[i]]) {
+                return;
+            }
+            int t = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = t;
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && edgeVolume[heap[left]] < edgeVolume[heap[smallest]]) {
+                smallest = left;
+            }
+            if (right < size && edgeVolume[heap[right]] < edgeVolume[heap[smallest]]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            int t = heap[smallest];
+            heap[smallest] = heap[i];
+            heap[i] = t;
+            i = smallest;
+        }
+    }
+
+    // Weight of the edge between two accounts: {transfer count, total volume}.
+    public synchronized long[] relationship(int accountA, int accountB) {
+        int a = vertexOf.get(accountA);
+        int b = vertexOf.get(accountB);
+        if (a >= 0 && b >= 0) {
+            long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+            int i = pairSlot(key, pairMask);
+            while (pairEdges[i] != -1) {
+                if (pairKeys[i] == key) {
+                    return new long[] { edgeCount[pairEdges[i]], edgeVolume[pairEdges[i]] };
+                }
+                i = (i + 1) & pairMask;
+            }
+        }
+        return new long[] { 0, 0 };
+    }
+
+    public synchronized void displayCustomerInfo(int accountNumber, int k) {
+        int[] top = topCounterparties(accountNumber, k);
+        if (top.length == 0) {
+            System.out.println("No transfers with other customers yet.");
+            return;
+        }
+        System.out.println("Top transfer partners:");
+        for (int partner : top) {
+            long[] weight = relationship(accountNumber, partner);
+            System.out.println("  Account " + partner + ": " + weight[0] + " transfers, total "
+                    + Money.format(weight[1]));
+        }
+    }
+}
+
+public class Bank {
+    private static final String SNAPSHOT_FILE = "accounts.txt";
+    // Monthly interest on savings accounts, in basis points: 50 = 0.5%.
+    static final int INTEREST_BASIS_POINTS = 50;
+    // Compaction rewrites (or, with a mapped store, forces) the whole book, so
+    // it is due once the journal holds as many records as there are accounts,
+    // and never before this many: replay then costs no more than one rewrite.
+    private static final int COMPACT_MIN_RECORDS = 10000;
+    // Balance changes lock one stripe per account; must be a power of two.
+    private static final int LOCK_STRIPES = 64;
+    // Balance changes queued per partition before a parallel replay applies them.
+    private static final int REPLAY_BATCH = 1 << 14;
+    // Customers shown per page of search results.
+    private static final int SEARCH_PAGE = 20;
+    // Characters of a bill built up before they are handed to the output.
+    private static final int BILL_CHUNK = 1 << 16;
+    // The console menu; option n is MENU[n - 1]. The loop only ends through EXIT_CHOICE.
+    private static final String[] MENU = { "Open account", "Deposit money", "Withdraw money",
+            "Display Customer Information", "Process transactions and exit", "Transfer fund", "Calculate interest",
+            "Account Linking", "Display Account", "Exit", "Account statement", "Search customers",
+            "Holdings report" };
+    private static final int EXIT_CHOICE = 10;
+
+    private final LongAdder tbalance;
+    private CustomerGraph customerGraph;
+
+    // Lock order: structureLock, then stripes in ascending index, then the journal/store monitors.
+    // structureLock guards adding rows to `accounts`; a stripe guards the
+    // balance of every account that hashes to it.
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    // One compaction at a time; taken before quiesce(), never while holding a stripe.
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    private final AccountTable accounts = new AccountTable();
+    private final AccountOrder accountOrder = new AccountOrder(accounts);
+    private final AccountIndexes indexes = new AccountIndexes(accounts, accountOrder);
+    private final AccountNumbers accountNumbers = new AccountNumbers();
+    private Journal journal;
+    private Ledger ledger;
+    private long snapshotLsn;
+    private int interestPeriod;
+    // The text snapshot compaction writes to; null with a mapped store.
+    private ShardedSnapshot snapshot;
+    private MappedAccountStore store;
+    // With a mapped store, optionally the only copy of the balances of recently
+    // used accounts, in place of loading every account used into the table.
+    private AccountCache cache;
+    private Scanner console;
+    private final Metrics metrics = new Metrics(this::accountCount);
+
+    public Bank() {
+        tbalance = new LongAdder();
+        customerGraph = new CustomerGraph(16);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private static int stripeOf(int accountNumber) {
+        int h = accountNumber * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    // Blocks every writer: used for snapshots, which must match the journal LSN exactly.
+    private void quiesce() {
+        structureLock.writeLock().lock();
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void resume() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+        structureLock.writeLock().unlock();
+    }
+
+    public void saveAccountsToFile(String filename) {
+        long start = System.nanoTime();
+        quiesce();
+        try {
+            writeSnapshot(filename);
+            System.out.println("Accounts saved to file: " + filename);
+        } catch (IOException e) {
+            System.err.println("Could not save " + filename + ": " + e.getMessage());
+        } finally {
+            resume();
+            metrics.record(Metrics.Op.SAVE, start);
+        }
+    }
+
+    // Caller holds every writer off. With a cache, the accounts are streamed
+    // from the store once the cache is flushed, one at a time.
+    private void writeSnapshot(String filename) throws IOException {
+        List<String> headers = new ArrayList<>();
+        headers.add(ShardedSnapshot.LSN_PREFIX + (journal != null ? journal.lastLsn() : snapshotLsn));
+        if (interestPeriod > 0) {
+            headers.add(ShardedSnapshot.INTEREST_PREFIX + interestPeriod);
+        }
+        if (cache != null) {
+            cache.flush();
+            headers.add(ShardedSnapshot.totalHeader(store.size(), store.totalBalance()));
+            SnapshotFile.write(new File(filename), headers, StoreListing.all(store, store::balanceAt));
+            return;
+        }
+        materializeAll();
+        long total = 0;
+        for (int row = 0; row < accounts.size(); row++) {
+            total += accounts.balance(row);
+        }
+        headers.add(ShardedSnapshot.totalHeader(accounts.size(), total));
+        SnapshotFile.write(new File(filename), headers, accounts);
+    }
+
+    public void loadAccountsFromFile(String filename) {
+        loadSnapshot(ShardedSnapshot.single(new File(filename)), filename);
+    }
+
+    // Shards are parsed concurrently; adding them to the index is a single pass.
+    private void loadSnapshot(ShardedSnapshot source, String filename) {
+        long start = System.nanoTime();
+        structureLock.writeLock().lock();
+        try {
+            for (List<BankAccount> shard : source.load()) {
+                for (BankAccount account : shard) {
+                    if (accounts.append(account) >= 0) {
+                        accountNumbers.observe(account.accountNumber);
+                        tbalance.add(account.balance);
+                    }
+                }
+            }
+            snapshotLsn = source.minLsn();
+            interestPeriod = Math.max(interestPeriod, source.interestPeriod());
+            System.out.println("Accounts loaded from file: " + filename);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.err.println("File not found: " + filename);
+        } catch (IOException e) {
+            System.err.println("Could not load " + filename + ": " + e.getMessage());
+        } finally {
+            structureLock.writeLock().unlock();
+            metrics.record(Metrics.Op.LOAD, start);
+        }
+    }
+
+    // Startup: load the latest snapshot, then replay journal records it does not
+    // cover. `snapshotFile` is either one accounts file or a directory of shards.
+    public void recover(String snapshotFile, String journalFile) {
+        long start = System.nanoTime();
+        File file = new File(snapshotFile);
+        if (file.isDirectory()) {
+            try {
+                snapshot = ShardedSnapshot.open(file);
+            } catch (IOException e) {
+                System.err.println("Could not open snapshot " + snapshotFile + ": " + e.getMessage());
+                return;
+            }
+        } else {
+            snapshot = ShardedSnapshot.single(file);
+        }
+        if (file.exists()) {
+            loadSnapshot(snapshot, snapshotFile);
+        }
+        openJournal(journalFile);
+        if (journal != null) {
+            // Shards written after snapshotLsn already hold later records; new ones must follow them.
+            journal.advanceLsn(snapshot.maxLsn());
+        }
+        reportReady(start);
+    }
+
+    // Startup from a mapped binary store. Only the fixed-width columns are read
+    // here; accounts are materialized on first lookup.
+    public void recoverFromStore(String dataFile, String journalFile) {
+        recoverFromStore(dataFile, journalFile, 0);
+    }
+
+    // As above, but if `cachedAccounts` is positive, balance operations go
+    // through an AccountCache of that many accounts instead of materializing
+    // accounts, so memory no longer grows with the number of accounts used.
+    public void recoverFromStore(String dataFile, String journalFile, int cachedAccounts) {
+        long start = System.nanoTime();
+        if (cachedAccounts > 0) {
+            AccountCache.checkCapacity(cachedAccounts, LOCK_STRIPES);
+        }
+        try {
+            store = MappedAccountStore.open(dataFile);
+        } catch (IOException e) {
+            System.err.println("Could not open account store " + dataFile + ": " + e.getMessage());
+            return;
+        }
+        if (cachedAccounts > 0) {
+            cache = new AccountCache(store, cachedAccounts, LOCK_STRIPES);
+            metrics.gauge("cacheSize", cache::size);
+            metrics.gauge("cacheHits", cache::hits);
+            metrics.gauge("cacheMisses", cache::misses);
+            metrics.gauge("cacheEvictions", cache::evictions);
+            metrics.gauge("cacheWriteBacks", cache::writeBacks);
+        }
+        tbalance.add(store.totalBalance());
+        for (int slot = 0; slot < store.size(); slot++) {
+            accountNumbers.observe(store.accountNumberAt(slot));
+        }
+        snapshotLsn = store.checkpointLsn();
+        interestPeriod = store.interestPeriod();
+        System.out.println("Account store opened: " + dataFile + " (" + store.size() + " accounts)");
+        openJournal(journalFile);
+        if (journal != null) {
+            // Records may have been flushed with LSNs whose journal entries never reached disk.
+            journal.advanceLsn(store.maxLsn());
+        }
+        reportReady(start);
+    }
+
+    // Ends startup: checks the recovered balances add up to the running
+    // total and prints the time from the start of recovery to now.
+    private void reportReady(long start) {
+        boolean reconciled;
+        if (store != null) {
+            if (cache != null) {
+                // Nothing else runs during recovery, so no stripes are needed.
+                cache.flush();
+            }
+            reconciled = store.totalBalance() == tbalance.sum();
+        } else {
+            reconciled = holdings().reconciled();
+        }
+        int mismatched = snapshot != null ? snapshot.mismatchedShards() : 0;
+        System.out.printf("Ready in %.1f ms: %d accounts, %s%s.%n", (System.nanoTime() - start) / 1_000_000.0,
+                accountCount(), reconciled ? "totals reconciled" : "TOTALS DO NOT RECONCILE",
+                mismatched > 0 ? ", " + mismatched + " snapshot file(s) did not match their #TOTAL" : "");
+    }
+
+    // The journal that belongs to a snapshot file, shard directory or store:
+    // accounts.txt and accounts.dat use accounts.journal, a directory `shards`
+    // uses shards.journal. Compaction folds a journal back into the book it was
+    // recovered with, so two books must never share one.
+    static String journalFor(String dataPath) {
+        File data = new File(dataPath);
+        String name = data.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0 && !data.isDirectory()) {
+            name = name.substring(0, dot);
+        }
+        return new File(data.getParentFile(), name + ".journal").getPath();
+    }
+
+    private void openJournal(String journalFile) {
+        String base = journalFile.endsWith(".journal")
+                ? journalFile.substring(0, journalFile.length() - ".journal".length())
+                : journalFile;
+        String ledgerFile = base + ".ledger";
+        try {
+            ledger = new Ledger(ledgerFile, snapshotLsn);
+        } catch (IOException e) {
+            System.err.println("Could not open ledger " + ledgerFile + ": " + e.getMessage());
+        }
+        String numbersFile = base + ".seq";
+        try {
+            accountNumbers.open(new File(numbersFile));
+        } catch (IOException e) {
+            System.err.println("Could not open account number mark " + numbersFile + ": " + e.getMessage());
+        }
+        try {
+            journal = new Journal(journalFile);
+            journal.setSyncLatency(metrics.latency(Metrics.Op.JOURNAL_SYNC));
+            int partitions = Math.min(LOCK_STRIPES, ForkJoinPool.getCommonPoolParallelism());
+            JournalReplayer replayer = partitions > 1 ? new PartitionedReplayer(partitions) : new JournalReplayer();
+            int replayed = journal.replay(snapshotLsn, replayer);
+            replayer.finish();
+            if (ledger != null) {
+                ledger.replayDone();
+            }
+            if (replayed > 0) {
+                System.out.println("Replayed " + replayed + " journal records from " + journalFile
+                        + (partitions > 1 ? " on " + partitions + " threads" : ""));
+            }
+            if (journal.isLegacyFormat()) {
+                compact();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not open journal " + journalFile + ": " + e.getMessage());
+            journal = null;
+        }
+    }
+
+    private class JournalReplayer implements Journal.Replayer {
+        public void open(long lsn, String name, String address, String accountType, int accountNumber,
+                long balance) {
+            if (!exists(accountNumber)) {
+                BankAccount account = new BankAccount(name, address, accountType, accountNumber, balance);
+                if (cache == null) {
+                    accounts.append(account);
+                }
+                accountNumbers.observe(accountNumber);
+                tbalance.add(account.balance);
+                markDirty(accountNumber);
+                if (store != null) {
+                    appendToStore(account, lsn);
+                }
+            }
+        }
+
+        public void deposit(long lsn, int accountNumber, long amount) {
+            apply(lsn, accountNumber, amount);
+            recordInLedger(lsn, Journal.DEPOSIT, accountNumber, 0, amount);
+        }
+
+        public void withdraw(long lsn, int accountNumber, long amount) {
+            apply(lsn, accountNumber, -amount);
+            recordInLedger(lsn, Journal.WITHDRAW, accountNumber, 0, amount);
+        }
+
+        public void transfer(long lsn, int fromAccount, int toAccount, long amount) {
+            apply(lsn, fromAccount, -amount);
+            apply(lsn, toAccount, amount);
+            recordInLedger(lsn, Journal.TRANSFER, fromAccount, toAccount, amount);
+        }
+
+        void apply(long lsn, int accountNumber, long change) {
+            if (cache != null) {
+                applyCached(lsn, accountNumber, change);
+                return;
+            }
+            int row = rowOf(accountNumber);
+            if (row >= 0 && !storeHasApplied(accountNumber, lsn) && !snapshotHasApplied(accountNumber, lsn)) {
+                accounts.setBalance(row, accounts.balance(row) + change);
+                tbalance.add(change);
+                writeBalance(row, lsn);
+            }
+        }
+
+        public void interest(long lsn, int period, int basisPoints) {
+            applyInterest(lsn, period, basisPoints);
+        }
+
+        // Called once the journal has been read to the end.
+        void finish() {
+        }
+
+        // The ledger may have lost its unsynced tail in a crash; the journal still has it.
+        void recordInLedger(long lsn, byte type, int accountNumber, int counterparty, long amount) {
+            if (ledger != null && !ledger.has(lsn)) {
+                appendToLedger(lsn, type, accountNumber, counterparty, amount);
+            }
+        }
+    }
+
+    // Replays balance changes on several threads. Records are still read,
+    // accounts opened and the ledger written in LSN order on the calling
+    // thread, but balance changes are queued by account into partitions that
+    // are applied in parallel, each in LSN order. Changes are additions, so
+    // partitions need no order between them; a transfer becomes its two
+    // halves. Interest depends on every earlier balance, so it waits for the
+    // queues to drain.
+    private class PartitionedReplayer extends JournalReplayer {
+        private final int partitions;
+        private final long[][] lsns;
+        private final int[][] accountNumbers;
+        private final long[][] changes;
+        private final int[] counts;
+
+        PartitionedReplayer(int partitions) {
+            this.partitions = partitions;
+            lsns = new long[partitions][REPLAY_BATCH];
+            accountNumbers = new int[partitions][REPLAY_BATCH];
+            changes = new long[partitions][REPLAY_BATCH];
+            counts = new int[partitions];
+        }
+
+        @Override
+        public void deposit(long lsn, int accountNumber, long amount) {
+            queue(lsn, accountNumber, amount);
+            recordInLedger(lsn, Journal.DEPOSIT, accountNumber, 0, amount);
+        }
+
+        @Override
+        public void withdraw(long lsn, int accountNumber, long amount) {
+            queue(lsn, accountNumber, -amount);
+            recordInLedger(lsn, Journal.WITHDRAW, accountNumber, 0, amount);
+        }
+
+        @Override
+        public void transfer(long lsn, int fromAccount, int toAccount, long amount) {
+            queue(lsn, fromAccount, -amount);
+            queue(lsn, toAccount, amount);
+            recordInLedger(lsn, Journal.TRANSFER, fromAccount, toAccount, amount);
+        }
+
+        @Override
+        public void interest(long lsn, int period, int basisPoints) {
+            finish();
+            super.interest(lsn, period, basisPoints);
+        }
+
+        private void queue(long lsn, int accountNumber, long change) {
+            int p = stripeOf(accountNumber) % partitions;
+            if (counts[p] == REPLAY_BATCH) {
+                finish();
+            }
+            int i = counts[p]++;
+            lsns[p][i] = lsn;
+            accountNumbers[p][i] = accountNumber;
+            changes[p][i] = change;
+        }
+
+        @Override
+        void finish() {
+            IntStream.range(0, partitions).parallel().forEach(p -> {
+                for (int i = 0; i < counts[p]; i++) {
+                    apply(lsns[p][i], accountNumbers[p][i], changes[p][i]);
+                }
+                counts[p] = 0;
+            });
+        }
+    }
+
+    // A cached entry carries the LSN of the last change to it, whether that
+    // was applied before the crash (and written back) or during this replay.
+    private void applyCached(long lsn, int accountNumber, long change) {
+        int stripe = stripeOf(accountNumber);
+        stripes[stripe].lock();
+        try {
+            int entry = findCached(stripe, accountNumber);
+            if (entry >= 0 && cache.lsn(entry) < lsn) {
+                cache.setBalance(entry, cache.balance(entry) + change, lsn);
+                tbalance.add(change);
+            }
+        } finally {
+            stripes[stripe].unlock();
+        }
+    }
+
+    private boolean storeHasApplied(int accountNumber, long lsn) {
+        return store != null && store.lsnAt(store.slotOf(accountNumber)) >= lsn;
+    }
+
+    private boolean snapshotHasApplied(int accountNumber, long lsn) {
+        return snapshot != null && snapshot.covers(accountNumber, lsn);
+    }
+
+    private void markDirty(int accountNumber) {
+        if (snapshot != null) {
+            snapshot.markDirty(accountNumber);
+        }
+    }
+
+    private void writeBalance(int row, long lsn) {
+        int accountNumber = accounts.number(row);
+        markDirty(accountNumber);
+        if (store != null) {
+            store.updateBalance(store.slotOf(accountNumber), accounts.balance(row), lsn);
+        }
+    }
+
+    // Growing the store moves its records to a new mapping, so every balance
+    // writer is shut out meanwhile. Caller holds the structure write lock.
+    private void growStore() {
+        quiesce();
+        try {
+            store.grow();
+        } catch (IOException e) {
+            System.err.println("Account store write failed: " + e.getMessage());
+        } finally {
+            resume();
+        }
+    }
+
+    private void appendToStore(BankAccount account, long lsn) {
+        try {
+            store.append(account, lsn);
+        } catch (IOException e) {
+            System.err.println("Account store write failed: " + e.getMessage());
+        }
+    }
+
+    private void appendToLedger(long lsn, byte type, int accountNumber, int counterparty, long amount) {
+        try {
+            ledger.append(lsn, type, accountNumber, counterparty, amount);
+        } catch (IOException e) {
+            System.err.println("Ledger write failed: " + e.getMessage());
+        }
+    }
+
+    private void journalOpen(BankAccount account) {
+        long lsn = 0;
+        if (journal != null) {
+            try {
+                lsn = journal.logOpen(account);
+            } catch (IOException e) {
+                System.err.println("Journal write failed: " + e.getMessage());
+            }
+        }
+        markDirty(account.accountNumber);
+        if (store != null) {
+            appendToStore(account, lsn);
+        }
+    }
+
+    // The journal and ledger records of a balance change; returns the LSN
+    // for the caller to stamp on the new balance.
+    private long journalDeposit(int accountNumber, long amount) {
+        long lsn = 0;
+        if (journal != null) {
+            try {
+                lsn = journal.logDeposit(accountNumber, amount);
+            } catch (IOException e) {
+                System.err.println("Journal write failed: " + e.getMessage());
+            }
+        }
+        if (ledger != null) {
+            appendToLedger(lsn, Journal.DEPOSIT, accountNumber, 0, amount);
+        }
+        return lsn;
+    }
+
+    private long journalWithdraw(int accountNumber, long amount) {
+        long lsn = 0;
+        if (journal != null) {
+            try {
+                lsn = journal.logWithdraw(accountNumber, amount);
+            } catch (IOException e) {
+                System.err.println("Journal write failed: " + e.getMessage());
+            }
+        }
+        if (ledger != null) {
+            appendToLedger(lsn, Journal.WITHDRAW, accountNumber, 0, amount);
+        }
+        return lsn;
+    }
+
+    private long journalTransfer(int fromAccount, int toAccount, long amount) {
+        long lsn = 0;
+        if (journal != null) {
+            try {
+                lsn = journal.logTransfer(fromAccount, toAccount, amount);
+            } catch (IOException e) {
+                System.err.println("Journal write failed: " + e.getMessage());
+            }
+        }
+        if (ledger != null) {
+            appendToLedger(lsn, Journal.TRANSFER, fromAccount, toAccount, amount);
+        }
+        return lsn;
+    }
+
+    // Must be called without holding any stripe, since compaction takes all of
+    // them. If another thread is already compacting, this one carries on.
+    private void compactIfDue() {
+        if (journal != null && journal.recordsSinceRotate() >= Math.max(COMPACT_MIN_RECORDS, accountCount())
+                && compactionLock.tryLock()) {
+            try {
+                compact();
+            } finally {
+                compactionLock.unlock();
+            }
+        }
+    }
+
+    // Folds the journal into the snapshot or store. Writers are only shut out
+    // while the journal is cut and the state at the cut captured: a
+    // copy-on-write view of the balances, or with a mapped store the cached
+    // balances written back. The view is then written, or the store forced,
+    // while writers carry on in the fresh journal file. The cut-off segments
+    // are only deleted once the snapshot covering them is on disk.
+    public void compact() {
+        if (journal == null) {
+            return;
+        }
+        compactionLock.lock();
+        long start = System.nanoTime();
+        try {
+            long lsn;
+            int period;
+            AccountTable.Snapshot view = null;
+            boolean[] shards = null;
+            quiesce();
+            try {
+                if (cache != null) {
+                    cache.flush();
+                }
+                lsn = journal.rotate();
+                period = interestPeriod;
+                if (store == null && snapshot != null) {
+                    view = accounts.snapshot();
+                    shards = snapshot.takeDirty();
+                }
+            } finally {
+                resume();
+            }
+            long save = System.nanoTime();
+            if (store != null) {
+                store.checkpoint(lsn);
+            } else if (snapshot != null) {
+                snapshot.flush(lsn, period, view, shards);
+            }
+            if (ledger != null) {
+                ledger.checkpoint(lsn);
+            }
+            metrics.record(Metrics.Op.SAVE, save);
+            journal.dropRotated();
+        } catch (IOException e) {
+            System.err.println("Compaction failed, journal kept: " + e.getMessage());
+        } finally {
+            metrics.record(Metrics.Op.COMPACT, start);
+            compactionLock.unlock();
+        }
+    }
+
+    // Forces every journal and ledger record written so far to disk, as the
+    // group commit would within a few milliseconds. Nothing is compacted.
+    void sync() throws IOException {
+        if (journal != null) {
+            journal.sync();
+        }
+        if (ledger != null) {
+            ledger.sync();
+        }
+    }
+
+    public void shutdown() {
+        if (journal != null) {
+            compact();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Journal close failed: " + e.getMessage());
+            }
+            journal = null;
+        }
+        if (ledger != null) {
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                System.err.println("Ledger close failed: " + e.getMessage());
+            }
+            ledger = null;
+        }
+        if (store != null) {
+            if (cache != null) {
+                // compact() has only flushed it if there was a journal.
+                quiesce();
+                try {
+                    cache.flush();
+                } finally {
+                    resume();
+                }
+                System.out.println(cache);
+                cache = null;
+            }
+            try {
+                store.close();
+            } catch (IOException e) {
+                System.err.println("Account store close failed: " + e.getMessage());
+            }
+            store = null;
+        }
+    }
+
+    // One-shot conversion of a text accounts file into the mapped binary format.
+    // The source's journal is folded in first, as for reshard(), so records
+    // that never reached the text file are not lost.
+    public static void convertToStore(String textFile, String dataFile) {
+        Bank bank = new Bank();
+        bank.recover(textFile, journalFor(textFile));
+        if (bank.snapshot == null) {
+            return;
+        }
+        long lsn = bank.journal != null ? bank.journal.lastLsn() : bank.snapshot.maxLsn();
+        bank.shutdown();
+        try {
+            MappedAccountStore.create(dataFile, bank.accounts, lsn, bank.interestPeriod);
+            System.out.println("Converted " + bank.accounts.size() + " accounts to " + dataFile);
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+        }
+    }
+
+    // Offline tool: splits a snapshot (one accounts file or a shard directory)
+    // into `shards` files in a new directory. The source's own journal (see
+    // journalFor()) is folded into it first, so the new shards need nothing
+    // replayed and either copy can be started from.
+    public static void reshard(String source, String targetDir, int shards) {
+        Bank bank = new Bank();
+        bank.recover(source, journalFor(source));
+        if (bank.snapshot == null) {
+            return;
+        }
+        long lsn = bank.journal != null ? bank.journal.lastLsn() : bank.snapshot.maxLsn();
+        bank.shutdown();
+        try {
+            ShardedSnapshot target = ShardedSnapshot.create(new File(targetDir), shards);
+            target.flush(lsn, bank.interestPeriod, bank.accounts.snapshot(), target.takeDirty());
+            System.out.println("Resharded " + bank.accounts.size() + " accounts into " + shards + " shards in "
+                    + targetDir);
+        } catch (IOException e) {
+            System.err.println("Resharding failed: " + e.getMessage());
+        }
+    }
+
+    // Pulls every record of the mapped store onto the heap, for full listings
+    // and exports. Not with a cache, which keeps the table empty; see
+    // StoreListing.
+    private void materializeAll() {
+        if (store == null || cache != null) {
+            return;
+        }
+        for (int slot = 0; slot < store.size(); slot++) {
+            try {
+                if (accounts.rowOf(store.accountNumberAt(slot)) < 0) {
+                    accounts.append(store.load(slot));
+                }
+            } catch (IOException e) {
+                System.err.println("Account store read failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    public enum Status {
+        OK, ACCOUNT_NOT_FOUND, INVALID_AMOUNT, INSUFFICIENT_FUNDS, SAME_ACCOUNT, BALANCE_OVERFLOW
+    }
+
+    // Programmatic API. Nothing here prompts or prints; the console menu and
+    // batch mode are thin shells over these methods. Amounts are in minor units.
+    //
+    // Each balance change happens under the account's stripe lock, together
+    // with its journal record, so the journal order for any one account
+    // matches the order the changes were applied.
+
+    // Opens an account and returns its number. Throws IllegalArgumentException
+    // on invalid input, with the same messages the console shows.
+    public int openAccount(String name, String address, String accountType, long initialDeposit) {
+        if (name == null || !name.matches("[a-zA-Z ]+")) {
+            throw new IllegalArgumentException("Name must contain only letters.");
+        }
+        accountType = accountType == null ? "" : accountType.toLowerCase();
+        if (!accountType.equals("savings") && !accountType.equals("current")) {
+            throw new IllegalArgumentException("Invalid account type. Please enter 'savings' or 'current'.");
+        }
+        if (initialDeposit <= 0) {
+            throw new IllegalArgumentException("Deposit amount must be greater than zero.");
+        }
+        int accountNumber = accountNumbers.allocate();
+        BankAccount newAccount = new BankAccount(name, address, accountType, accountNumber, initialDeposit);
+
+        structureLock.writeLock().lock();
+        try {
+            if (store != null && store.isFull()) {
+                growStore();
+            }
+            tbalance.add(newAccount.balance);
+            if (cache == null) {
+                accounts.append(newAccount);
+            }
+            journalOpen(newAccount);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+        compactIfDue();
+        return accountNumber;
+    }
+
+    // Each operation is timed and its outcome counted; see metrics().
+    public Status deposit(int accountNumber, long amount) {
+        long start = System.nanoTime();
+        Status status = tryDeposit(accountNumber, amount);
+        metrics.record(Metrics.Op.DEPOSIT, start, status);
+        return status;
+    }
+
+    public Status withdraw(int accountNumber, long amount) {
+        long start = System.nanoTime();
+        Status status = tryWithdraw(accountNumber, amount);
+        metrics.record(Metrics.Op.WITHDRAW, start, status);
+        return status;
+    }
+
+    public Status transfer(int fromAccount, int toAccount, long amount) {
+        long start = System.nanoTime();
+        Status status = tryTransfer(fromAccount, toAccount, amount);
+        metrics.record(Metrics.Op.TRANSFER, start, status);
+        return status;
+    }
+
+    private Status tryDeposit(int accountNumber, long amount) {
+        if (cache != null) {
+            return cachedDeposit(accountNumber, amount);
+        }
+        int row = rowOf(accountNumber);
+        if (row < 0) {
+            return Status.ACCOUNT_NOT_FOUND;
+        }
+        if (amount <= 0) {
+            return Status.INVALID_AMOUNT;
+        }
+        ReentrantLock lock = stripes[stripeOf(accountNumber)];
+        lock.lock();
+        try {
+            long balance = accounts.balance(row);
+            if (balance > Long.MAX_VALUE - amount) {
+                return Status.BALANCE_OVERFLOW;
+            }
+            accounts.setBalance(row, balance + amount);
+            tbalance.add(amount);
+            writeBalance(row, journalDeposit(accountNumber, amount));
+        } finally {
+            lock.unlock();
+        }
+        compactIfDue();
+        return Status.OK;
+    }
+
+    private Status tryWithdraw(int accountNumber, long amount) {
+        if (cache != null) {
+            return cachedWithdraw(accountNumber, amount);
+        }
+        int row = rowOf(accountNumber);
+        if (row < 0) {
+            return Status.ACCOUNT_NOT_FOUND;
+        }
+        if (amount <= 0) {
+            return Status.INVALID_AMOUNT;
+        }
+        ReentrantLock lock = stripes[stripeOf(accountNumber)];
+        lock.lock();
+        try {
+            long balance = accounts.balance(row);
+            if (amount > balance) {
+                return Status.INSUFFICIENT_FUNDS;
+            }
+            accounts.setBalance(row, balance - amount);
+            tbalance.add(-amount);
+            writeBalance(row, journalWithdraw(accountNumber, amount));
+        } finally {
+            lock.unlock();
+        }
+        compactIfDue();
+        return Status.OK;
+    }
+
+    // Moves money between two accounts atomically. Both stripes are taken in
+    // ascending order, so two opposite transfers can never deadlock.
+    private Status tryTransfer(int fromAccount, int toAccount, long amount) {
+        if (cache != null) {
+            return cachedTransfer(fromAccount, toAccount, amount);
+        }
+        int from = rowOf(fromAccount);
+        int to = rowOf(toAccount);
+        if (from < 0 || to < 0) {
+            return Status.ACCOUNT_NOT_FOUND;
+        }
+        if (fromAccount == toAccount) {
+            return Status.SAME_ACCOUNT;
+        }
+        if (amount <= 0) {
+            return Status.INVALID_AMOUNT;
+        }
+        int a = stripeOf(fromAccount);
+        int b = stripeOf(toAccount);
+        ReentrantLock first = stripes[Math.min(a, b)];
+        ReentrantLock second = stripes[Math.max(a, b)];
+        first.lock();
+        if (second != first) {
+            second.lock();
+        }
+        try {
+            long fromBalance = accounts.balance(from);
+            long toBalance = accounts.balance(to);
+            if (amount > fromBalance) {
+                return Status.INSUFFICIENT_FUNDS;
+            }
+            if (toBalance > Long.MAX_VALUE - amount) {
+                return Status.BALANCE_OVERFLOW;
+            }
+            accounts.setBalance(from, fromBalance - amount);
+            accounts.setBalance(to, toBalance + amount);
+            long lsn = journalTransfer(fromAccount, toAccount, amount);
+            writeBalance(from, lsn);
+            writeBalance(to, lsn);
+        } finally {
+            if (second != first) {
+                second.unlock();
+            }
+            first.unlock();
+        }
+        customerGraph.recordTransfer(fromAccount, toAccount, amount);
+        compactIfDue();
+        return Status.OK;
+    }
+
+    // The same operations against the cache. An entry can be evicted as soon
+    // as its stripe is released, so it is looked up with the stripe held.
+
+    private Status cachedDeposit(int accountNumber, long amount) {
+        int stripe = stripeOf(accountNumber);
+        stripes[stripe].lock();
+        try {
+            int entry = findCached(stripe, accountNumber);
+            if (entry < 0) {
+                return Status.ACCOUNT_NOT_FOUND;
+            }
+            if (amount <= 0) {
+                return Status.INVALID_AMOUNT;
+            }
+            long balance = cache.balance(entry);
+            if (balance > Long.MAX_VALUE - amount) {
+                return Status.BALANCE_OVERFLOW;
+            }
+            tbalance.add(amount);
+            cache.setBalance(entry, balance + amount, journalDeposit(accountNumber, amount));
+        } finally {
+            stripes[stripe].unlock();
+        }
+        compactIfDue();
+        return Status.OK;
+    }
+
+    private Status cachedWithdraw(int accountNumber, long amount) {
+        int stripe = stripeOf(accountNumber);
+        stripes[stripe].lock();
+        try {
+            int entry = findCached(stripe, accountNumber);
+            if (entry < 0) {
+                return Status.ACCOUNT_NOT_FOUND;
+            }
+            if (amount <= 0) {
+                return Status.INVALID_AMOUNT;
+            }
+            long balance = cache.balance(entry);
+            if (amount > balance) {
+                return Status.INSUFFICIENT_FUNDS;
+            }
+            tbalance.add(-amount);
+            cache.setBalance(entry, balance - amount, journalWithdraw(accountNumber, amount));
+        } finally {
+            stripes[stripe].unlock();
+        }
+        compactIfDue();
+        return Status.OK;
+    }
+
+    private Status cachedTransfer(int fromAccount, int toAccount, long amount) {
+        int a = stripeOf(fromAccount);
+        int b = stripeOf(toAccount);
+        ReentrantLock first = stripes[Math.min(a, b)];
+        ReentrantLock second = stripes[Math.max(a, b)];
+        first.lock();
+        if (second != first) {
+            second.lock();
+        }
+        try {
+            int from = findCached(a, fromAccount);
+            int to = findCached(b, toAccount);
+            if (from < 0 || to < 0) {
+                return Status.ACCOUNT_NOT_FOUND;
+            }
+            if (fromAccount == toAccount) {
+                return Status.SAME_ACCOUNT;
+            }
+            if (amount <= 0) {
+                return Status.INVALID_AMOUNT;
+            }
+            long fromBalance = cache.balance(from);
+            long toBalance = cache.balance(to);
+            if (amount > fromBalance) {
+                return Status.INSUFFICIENT_FUNDS;
+            }
+            if (toBalance > Long.MAX_VALUE - amount) {
+                return Status.BALANCE_OVERFLOW;
+            }
+            long lsn = journalTransfer(fromAccount, toAccount, amount);
+            cache.setBalance(from, fromBalance - amount, lsn);
+            cache.setBalance(to, toBalance + amount, lsn);
+        } finally {
+            if (second != first) {
+                second.unlock();
+            }
+            first.unlock();
+        }
+        customerGraph.recordTransfer(fromAccount, toAccount, amount);
+        compactIfDue();
+        return Status.OK;
+    }
+
+    public OptionalLong getBalance(int accountNumber) {
+        if (cache != null) {
+            int stripe = stripeOf(accountNumber);
+            stripes[stripe].lock();
+            try {
+                int entry = findCached(stripe, accountNumber);
+                return entry < 0 ? OptionalLong.empty() : OptionalLong.of(cache.balance(entry));
+            } finally {
+                stripes[stripe].unlock();
+            }
+        }
+        int row = rowOf(accountNumber);
+        return row < 0 ? OptionalLong.empty() : OptionalLong.of(accounts.balance(row));
+    }
+
+    // Interest for the month on a savings account; zero for current accounts.
+    public OptionalLong monthlyInterest(int accountNumber) {
+        if (cache != null) {
+            int stripe = stripeOf(accountNumber);
+            stripes[stripe].lock();
+            try {
+                int entry = findCached(stripe, accountNumber);
+                if (entry < 0) {
+                    return OptionalLong.empty();
+                }
+                return OptionalLong.of(cache.isSavings(entry) ? interestOn(cache.balance(entry), INTEREST_BASIS_POINTS)
+                        : 0);
+            } finally {
+                stripes[stripe].unlock();
+            }
+        }
+        int row = rowOf(accountNumber);
+        if (row < 0) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(accounts.isSavings(row) ? interestOn(accounts.balance(row), INTEREST_BASIS_POINTS) : 0);
+    }
+
+    // balance * basisPoints / 10000 in exact integer arithmetic, rounded half
+    // up. Throws ArithmeticException if the product does not fit in a long.
+    static long interestOn(long balance, int basisPoints) {
+        return Math.addExact(Math.multiplyExact(balance, basisPoints), 5_000) / 10_000;
+    }
+
+    // The balance after crediting interest, or the balance unchanged if either
+    // the interest or the new balance would overflow.
+    static long withInterest(long balance, int basisPoints) {
+        try {
+            return Math.addExact(balance, interestOn(balance, basisPoints));
+        } catch (ArithmeticException e) {
+            return balance;
+        }
+    }
+
+    // Outcome of an accrueInterest run.
+    static class InterestRun {
+        final int period;
+        final int accounts;
+        final long totalInterest;
+        final long elapsedNanos;
+
+        InterestRun(int period, int accounts, long totalInterest, long elapsedNanos) {
+            this.period = period;
+            this.accounts = accounts;
+            this.totalInterest = totalInterest;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public String toString() {
+            return String.format("Interest for %d: %d accounts credited, total %d, time: %.1f ms", period, accounts,
+                    totalInterest, elapsedNanos / 1_000_000.0);
+        }
+    }
+
+    // End-of-month job: credits a month's interest to every savings account in
+    // one parallel pass. `period` is the month as yyyyMM and must be later than
+    // the last one credited, so a run can never be applied twice.
+    //
+    // The run is journaled as a single record and synced before any balance
+    // changes. If the process dies mid-run, replaying that record on startup
+    // finishes it; with a mapped store, records already credited carry the
+    // run's LSN and are skipped. In the ledger every credit of the run shares
+    // that LSN; see applyInterest(). A checkpoint follows the run, so the journal
+    // does not have to replay it on the next start.
+    public InterestRun accrueInterest(int period) throws IOException {
+        if (period < 100000 || period > 999912 || period % 100 < 1 || period % 100 > 12) {
+            throw new IllegalArgumentException("Period must be a month as yyyyMM: " + period);
+        }
+        InterestRun run;
+        quiesce();
+        try {
+            if (period <= interestPeriod) {
+                throw new IllegalArgumentException("Interest has already been credited up to " + interestPeriod + ".");
+            }
+            long lsn = 0;
+            if (journal != null) {
+                lsn = journal.logInterest(period, INTEREST_BASIS_POINTS);
+                journal.sync();
+            }
+            run = applyInterest(lsn, period, INTEREST_BASIS_POINTS);
+        } finally {
+            resume();
+        }
+        compact();
+        return run;
+    }
+
+    // Caller must have every writer shut out: quiesce() or recovery.
+    //
+    // The credits are worked out first and reach the ledger, forced, before
+    // any balance changes. Every credit of a run carries the run's one LSN and
+    // the ledger keeps a run whole or not at all, so if a crash leaves the
+    // balances partly credited, the ledger already holds the whole run, and
+    // if the ledger holds none of it, no balance was touched and replay works
+    // out the same credits again.
+    private InterestRun applyInterest(long lsn, int period, int basisPoints) {
+        long start = System.nanoTime();
+        long total;
+        long[] credited;
+        int[] accountNumbers;
+        if (store != null) {
+            if (cache != null) {
+                cache.flush();
+            }
+            credited = new long[store.size()];
+            total = store.interestDue(lsn, basisPoints, credited);
+            accountNumbers = new int[credited.length];
+            for (int slot = 0; slot < credited.length; slot++) {
+                accountNumbers[slot] = store.accountNumberAt(slot);
+            }
+        } else {
+            credited = new long[accounts.size()];
+            total = IntStream.range(0, credited.length).parallel().mapToLong(row -> {
+                if (!accounts.isSavings(row) || snapshotHasApplied(accounts.number(row), lsn)) {
+                    return 0;
+                }
+                long balance = accounts.balance(row);
+                credited[row] = withInterest(balance, basisPoints) - balance;
+                return credited[row];
+            }).sum();
+            accountNumbers = new int[credited.length];
+            for (int row = 0; row < credited.length; row++) {
+                accountNumbers[row] = accounts.number(row);
+            }
+        }
+
+        if (ledger != null && !ledger.has(lsn)) {
+            try {
+                ledger.appendRun(lsn, Journal.INTEREST, accountNumbers, credited);
+            } catch (IOException e) {
+                System.err.println("Ledger write failed: " + e.getMessage());
+            }
+        }
 
-class BankAccount {
-    String name;
-    String address;
-    String accountType;
-    int accountNumber;
-    int balance;
-    BankAccount next;
+        if (store != null) {
+            store.creditInterest(lsn, period, credited);
+            if (cache != null) {
+                cache.reload();
+            }
+            for (int row = 0; row < accounts.size(); row++) {
+                accounts.setBalance(row, store.balanceAt(store.slotOf(accounts.number(row))));
+            }
+        } else {
+            IntStream.range(0, credited.length).parallel().filter(row -> credited[row] != 0)
+                    .forEach(row -> accounts.setBalance(row, accounts.balance(row) + credited[row]));
+        }
+        tbalance.add(total);
+        interestPeriod = Math.max(interestPeriod, period);
+        if (snapshot != null) {
+            snapshot.markAllDirty();
+        }
 
-    public BankAccount(String name, String address, String accountType, int accountNumber, int balance) {
-        this.name = name;
-        this.address = address;
-        this.accountType = accountType;
-        this.accountNumber = accountNumber;
-        this.balance = balance;
-        this.next = null;
+        int count = 0;
+        for (long credit : credited) {
+            if (credit != 0) {
+                count++;
+            }
+        }
+        return new InterestRun(period, count, total, System.nanoTime() - start);
     }
 
-    public String toString() {
-        return "Name: " + name + "\n" +
-                "Address: " + address + "\n" +
-                "Type of account: " + accountType + "\n" +
-                "Amount deposited: " + balance;
+    // The account's last n ledger entries, newest first. Empty when running without a journal.
+    public List<BankAccount.Transaction> recentTransactions(int accountNumber, int n) throws IOException {
+        return ledger == null ? Collections.emptyList() : ledger.latest(accountNumber, n);
     }
 
-    static class Transaction {
-        static int transactionCounter = 1;
-        int transactionId;
-        Date date;
-        int amount;
-
-        public Transaction(int amount) {
-            this.transactionId = transactionCounter++;
-            this.date = new Date();
-            this.amount = amount;
+    // Streams the account's ledger entries with fromMillis <= time < toMillis, oldest first.
+    public void forEachTransaction(int accountNumber, long fromMillis, long toMillis,
+            Consumer<BankAccount.Transaction> action) throws IOException {
+        if (ledger != null) {
+            ledger.forEach(accountNumber, fromMillis, toMillis, action);
         }
+    }
 
-        public String toString() {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            return String.format("Transaction ID: %d\nDate: %s\nAmount: %d", transactionId, sdf.format(date), amount);
+    // Outcome of a transferBatch call.
+    static class TransferBatchResult {
+        final int applied;
+        final int rejected;
+        final long elapsedNanos;
+
+        TransferBatchResult(int applied, int rejected, long elapsedNanos) {
+            this.applied = applied;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
         }
-    }
-}
 
-class CustomerGraph {
-    private LinkedList<BankAccount>[] adjacencyList;
+        double transfersPerSecond() {
+            return elapsedNanos == 0 ? 0 : (applied + rejected) * 1_000_000_000.0 / elapsedNanos;
+        }
 
-    public CustomerGraph(int numCustomers) {
-        adjacencyList = new LinkedList[numCustomers];
-        for (int i = 0; i < numCustomers; i++) {
-            adjacencyList[i] = new LinkedList<>();
+        public String toString() {
+            return String.format("Transfers applied: %d, rejected: %d, time: %.1f ms, throughput: %.0f transfers/s",
+                    applied, rejected, elapsedNanos / 1_000_000.0, transfersPerSecond());
         }
     }
 
-    public void displayCustomerInfo() {
-        System.out.println("Customer Information:");
-        for (int i = 0; i < adjacencyList.length; i++) {
-            if (!adjacencyList[i].isEmpty()) {
-                System.out.println("Customer Name: " + adjacencyList[i].get(0).name);
-                System.out.println("Account Type: " + adjacencyList[i].get(0).accountType);
-                System.out.println("---------------------");
+    // Applies transfers[i] = (fromAccounts[i] -> toAccounts[i], amounts[i]) in order.
+    // Each transfer is all-or-nothing on its own; a rejected one (unknown
+    // account, bad amount, insufficient funds) leaves both balances untouched
+    // and does not stop the rest of the batch. If `applied` is non-null it
+    // receives the per-transfer outcome.
+    TransferBatchResult transferBatch(int[] fromAccounts, int[] toAccounts, long[] amounts, boolean[] applied) {
+        if (fromAccounts.length != toAccounts.length || fromAccounts.length != amounts.length
+                || (applied != null && applied.length != amounts.length)) {
+            throw new IllegalArgumentException("Transfer batch arrays must have the same length.");
+        }
+        long start = System.nanoTime();
+        int ok = 0;
+        for (int i = 0; i < amounts.length; i++) {
+            boolean done = transfer(fromAccounts[i], toAccounts[i], amounts[i]) == Status.OK;
+            if (done) {
+                ok++;
+            }
+            if (applied != null) {
+                applied[i] = done;
             }
         }
+        return new TransferBatchResult(ok, amounts.length - ok, System.nanoTime() - start);
     }
 
-    public void addEdge(int from, BankAccount to) {
-        adjacencyList[from].add(to);
-    }
-}
-
-public class Bank {
-    private BankAccount head;
-    private Queue<Integer> transactionQueue;
-    private int tbalance;
-    private Stack<BankAccount> transactionStack;
-    private CustomerGraph customerGraph;
-
-    private List<BankAccount> accounts;
+    // Outcome of a debitBatch call. It keeps the caller's amounts, since the bill lists them.
+    static class DebitBatchResult {
+        final Status status;
+        final int accountNumber;
+        final long total;
+        final long time;
+        final long elapsedNanos;
+        private final long[] amounts;
+
+        DebitBatchResult(Status status, int accountNumber, long[] amounts, long total, long elapsedNanos) {
+            this.status = status;
+            this.accountNumber = accountNumber;
+            this.amounts = amounts;
+            this.total = total;
+            this.time = System.currentTimeMillis();
+            this.elapsedNanos = elapsedNanos;
+        }
 
-    public Bank() {
-        head = null;
-        transactionQueue = new LinkedList<>();
-        tbalance = 0;
-        transactionStack = new Stack<>();
-        customerGraph = new CustomerGraph(10);
-        accounts = new ArrayList<>();
-    }
+        int items() {
+            return amounts.length;
+        }
 
-    public void saveAccountsToFile(String filename) {
-        try (PrintWriter writer = new PrintWriter(filename)) {
-            Set<Integer> accountNumbers = new HashSet<>();
-            for (BankAccount account : accounts) {
-                if (!accountNumbers.contains(account.accountNumber)) {
-                    writer.println(account.name);
-                    writer.println(account.address);
-                    writer.println(account.accountType);
-                    writer.println(account.accountNumber);
-                    writer.println(account.balance);
-                    writer.println("-----------------------#CUSTOMER#--------------------");
-                    accountNumbers.add(account.accountNumber);
+        // The bill: a header, one line per item and the total. Lines are built
+        // in one buffer that is handed to `out` and reused every BILL_CHUNK
+        // characters, so a bill of millions of items allocates almost nothing.
+        void writeBill(Appendable out) throws IOException {
+            StringBuilder buffer = new StringBuilder(BILL_CHUNK + 64);
+            buffer.append("Bill for account ").append(accountNumber).append(", ");
+            BankAccount.Transaction.TIME_FORMAT.formatTo(Instant.ofEpochMilli(time), buffer);
+            buffer.append('\n');
+            for (int i = 0; i < amounts.length; i++) {
+                buffer.append("  ").append(i + 1).append("  ");
+                Money.appendTo(buffer, amounts[i]).append('\n');
+                if (buffer.length() >= BILL_CHUNK) {
+                    out.append(buffer);
+                    buffer.setLength(0);
                 }
             }
-            System.out.println("Accounts saved to file: " + filename);
-        } catch (IOException e) {
-            e.printStackTrace();
+            buffer.append("Total: ").append(amounts.length).append(" items, ");
+            Money.appendTo(buffer, total).append('\n');
+            out.append(buffer);
+        }
+
+        public String toString() {
+            if (status != Status.OK) {
+                return "Debit batch of " + amounts.length + " items rejected: " + status;
+            }
+            return String.format("Debits applied: %d items, total %s, time: %.1f ms", amounts.length,
+                    Money.format(total), elapsedNanos / 1_000_000.0);
         }
     }
 
-    public void loadAccountsFromFile(String filename) {
-        try (Scanner scanner = new Scanner(new File(filename))) {
-            while (scanner.hasNext()) {
-                String name = scanner.nextLine();
-                String address = scanner.nextLine();
-                String accountType = scanner.nextLine();
-                int accountNumber = Integer.parseInt(scanner.nextLine());
-                int balance = Integer.parseInt(scanner.nextLine());
-
-                while (scanner.hasNext()
-                        && !scanner.nextLine().equals("-----------------------#CUSTOMER#--------------------"))
-                    ;
-                BankAccount account = new BankAccount(name, address, accountType, accountNumber, balance);
-                accounts.add(account);
+    // Debits every amount from one account as a single withdrawal of their
+    // sum: all of them, or none if any amount is not positive or the sum is
+    // more than the balance. However many items there are, the batch costs one
+    // pass to validate, one balance update and one journal and ledger record.
+    DebitBatchResult debitBatch(int accountNumber, long[] amounts) {
+        long start = System.nanoTime();
+        Status status = exists(accountNumber) ? Status.OK : Status.ACCOUNT_NOT_FOUND;
+        long total = 0;
+        for (int i = 0; i < amounts.length && status == Status.OK; i++) {
+            if (amounts[i] <= 0) {
+                status = Status.INVALID_AMOUNT;
+            } else if ((total += amounts[i]) < 0) {
+                // Past Long.MAX_VALUE, which no balance can cover.
+                status = Status.INSUFFICIENT_FUNDS;
             }
-            sortByAccountNumber();
-            System.out.println("Accounts loaded from file: " + filename);
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found: " + filename);
         }
+        if (status == Status.OK && total > 0) {
+            status = withdraw(accountNumber, total);
+        }
+        return new DebitBatchResult(status, accountNumber, amounts, total, System.nanoTime() - start);
     }
 
-    private void merge(List<BankAccount> arr, int l, int m, int r, String sortBy) {
-        int n1 = m - l + 1;
-        int n2 = r - m;
+    // Sorted listings come from cached orders, so asking for one only sorts
+    // the accounts added since the last listing. The lists are read-only and
+    // show every balance as of the moment the listing was asked for. With a
+    // cache they are sorted from the store's columns instead, each time, and
+    // read each account from the store as it is visited; see StoreListing.
+    public List<BankAccount> sortByAccountNumber() {
+        return listing(AccountOrder.Key.ACCOUNT_NUMBER);
+    }
 
-        List<BankAccount> L = new ArrayList<>(arr.subList(l, m + 1));
-        List<BankAccount> R = new ArrayList<>(arr.subList(m + 1, r + 1));
+    public List<BankAccount> sortByName() {
+        return listing(AccountOrder.Key.NAME);
+    }
 
-        int i = 0, j = 0;
-        int k = l;
-        while (i < n1 && j < n2) {
-            if (sortBy.equals("accountNumber") && L.get(i).accountNumber <= R.get(j).accountNumber) {
-                arr.set(k++, L.get(i++));
-            } else if (sortBy.equals("name") && L.get(i).name.compareTo(R.get(j).name) <= 0) {
-                arr.set(k++, L.get(i++));
-            } else if (sortBy.equals("accountType")) {
-                if (L.get(i).accountType.equals("savings")) {
-                    arr.set(k++, L.get(i++));
-                } else if (R.get(j).accountType.equals("savings")) {
-                    arr.set(k++, R.get(j++));
-                } else {
-                    arr.set(k++, L.get(i++));
+    public List<BankAccount> sortByAccountType() {
+        return listing(AccountOrder.Key.ACCOUNT_TYPE);
+    }
+
+    private List<BankAccount> listing(AccountOrder.Key key) {
+        if (cache != null) {
+            try {
+                switch (key) {
+                    case ACCOUNT_NUMBER:
+                        return StoreListing.byNumber(store, this::currentBalance);
+                    case ACCOUNT_TYPE:
+                        return StoreListing.byType(store, this::currentBalance);
+                    default:
+                        return StoreListing.byName(store, this::currentBalance);
                 }
-            } else {
-                arr.set(k++, R.get(j++));
+            } catch (IOException e) {
+                System.err.println("Account store read failed: " + e.getMessage());
+                return List.of();
             }
         }
+        materializeStore();
+        int[] order = accountOrder.order(key);
+        return snapshotAccounts().rows(order, order.length);
+    }
 
-        while (i < n1) {
-            arr.set(k++, L.get(i++));
+    // Totals per account type, reconciled against tbalance, summed in
+    // parallel from a snapshot while transactions carry on. With a cache they
+    // are summed from the store's columns instead, with writers held off for
+    // that one pass: the store has no snapshot to reconcile against, and the
+    // pass reads two fixed-width columns without building any account.
+    public Holdings holdings() {
+        if (cache != null) {
+            quiesce();
+            try {
+                cache.flush();
+                return Holdings.of(store, tbalance.sum());
+            } finally {
+                resume();
+            }
         }
-
-        while (j < n2) {
-            arr.set(k++, R.get(j++));
+        materializeStore();
+        AccountTable.Snapshot view;
+        long runningTotal;
+        quiesce();
+        try {
+            view = accounts.snapshot();
+            runningTotal = tbalance.sum();
+        } finally {
+            resume();
         }
+        return Holdings.of(view, runningTotal);
     }
 
-    private void mergeSort(List<BankAccount> arr, int l, int r, String sortBy) {
-        if (l < r) {
-            int m = (l + r) / 2;
-            mergeSort(arr, l, m, sortBy);
-            mergeSort(arr, m + 1, r, sortBy);
-            merge(arr, l, m, r, sortBy);
+    // Writers are held off only while the balance pages are captured, which
+    // is one reference per 16K accounts; reading the snapshot blocks no one.
+    private AccountTable.Snapshot snapshotAccounts() {
+        quiesce();
+        try {
+            return accounts.snapshot();
+        } finally {
+            resume();
         }
     }
 
-    public void sortByAccountNumber() {
-        mergeSort(accounts, 0, accounts.size() - 1, "accountNumber");
-        // System.out.println("Accounts sorted by account number.");
+    // Customer searches through the secondary indexes. Results are read-only
+    // and pre-sorted; take pages with subList(), which copies nothing. With a
+    // cache there are no indexes: each search is one pass over the store that
+    // keeps only its matches.
+
+    // Names starting with `prefix` (case-sensitive), in name order.
+    public List<BankAccount> findByNamePrefix(String prefix) {
+        return cache != null ? searchStore(prefix, null, null) : searchIndexes().byNamePrefix(prefix);
+    }
+
+    // Addresses containing `word`, such as a city (any case), in the order the accounts were opened.
+    public List<BankAccount> findByAddress(String word) {
+        return cache != null ? searchStore(null, word, null) : searchIndexes().byAddress(word);
     }
 
-    public void sortByName() {
-        mergeSort(accounts, 0, accounts.size() - 1, "name");
-        System.out.println("Accounts sorted by name.");
+    public List<BankAccount> findByAccountType(String accountType) {
+        return cache != null ? searchStore(null, null, accountType) : searchIndexes().byType(accountType);
     }
 
-    public void sortByAccountType() {
-        mergeSort(accounts, 0, accounts.size() - 1, "accountType");
-        System.out.println("Accounts sorted by account type.");
+    // Accounts matching every non-null key; in name order when a name prefix is given.
+    public List<BankAccount> search(String namePrefix, String addressWord, String accountType) {
+        return cache != null ? searchStore(namePrefix, addressWord, accountType)
+                : searchIndexes().search(namePrefix, addressWord, accountType);
     }
 
-    public void openAccount() {
-        Scanner scanner = new Scanner(System.in);
+    private AccountIndexes searchIndexes() {
+        materializeStore();
+        return indexes;
+    }
 
+    private List<BankAccount> searchStore(String namePrefix, String addressWord, String accountType) {
         try {
-            System.out.print("Enter your full name: ");
-            String name = null;
-            while (true) {
-                try {
-                    name = scanner.nextLine();
-                    if (!name.matches("[a-zA-Z ]+")) {
-                        throw new IllegalArgumentException("Name must contain only letters.");
-                    }
-                    break;
-                } catch (IllegalArgumentException e) {
-                    System.out.println(e.getMessage());
-                    System.out.print("Please enter a valid name: ");
-                }
-            }
+            return StoreListing.search(store, this::currentBalance, namePrefix, addressWord, accountType);
+        } catch (IOException e) {
+            System.err.println("Account store read failed: " + e.getMessage());
+            return List.of();
+        }
+    }
 
-            System.out.print("Enter your address: ");
-            String address = scanner.nextLine();
+    // Every account in the order it was opened, without sorting.
+    private List<BankAccount> unsortedListing() {
+        if (cache != null) {
+            return StoreListing.all(store, this::currentBalance);
+        }
+        materializeStore();
+        return snapshotAccounts();
+    }
 
-            System.out.print("What type of account you want to open (savings/current): ");
-            String accountType = null;
-            while (true) {
-                try {
-                    accountType = scanner.nextLine().toLowerCase();
-                    if (!accountType.equals("savings") && !accountType.equals("current")) {
-                        throw new IllegalArgumentException(
-                                "Invalid account type. Please enter 'savings' or 'current'.");
-                    }
-                    break;
-                } catch (IllegalArgumentException e) {
-                    System.out.println(e.getMessage());
-                    System.out.print("Please enter a valid account type: ");
-                }
+    // Orders and indexes only cover the table, so a mapped store must be loaded into it first.
+    private void materializeStore() {
+        if (store != null && cache == null) {
+            structureLock.writeLock().lock();
+            try {
+                materializeAll();
+            } finally {
+                structureLock.writeLock().unlock();
             }
+        }
+    }
 
-            int accountNumber = (int) ((Math.random() * 9000) + 1000);
+    // With a cache, the slot's balance as of now: the cached entry's if the
+    // account is cached, otherwise the store's. Only the account's own stripe
+    // is held while it is read.
+    private long currentBalance(int slot) {
+        int accountNumber = store.accountNumberAt(slot);
+        int stripe = stripeOf(accountNumber);
+        stripes[stripe].lock();
+        try {
+            int entry = cache.peek(stripe, accountNumber);
+            return entry >= 0 ? cache.balance(entry) : store.balanceAt(slot);
+        } finally {
+            stripes[stripe].unlock();
+        }
+    }
 
-            int balance;
-            while (true) {
-                try {
-                    System.out.print("Enter amount for deposit: ");
-                    balance = Integer.parseInt(scanner.nextLine());
-                    if (balance <= 0) {
-                        throw new IllegalArgumentException("Deposit amount must be greater than zero.");
-                    }
-                    break;
-                } catch (NumberFormatException e) {
-                    System.out.println("Invalid input. Please enter a valid number for deposit amount.");
-                } catch (IllegalArgumentException e) {
-                    System.out.println(e.getMessage());
-                }
-            }
+    // Console shell. All prompts share one Scanner and read whole lines, so
+    // menu choices and free-text answers never leave stray newlines behind.
 
-            BankAccount newAccount = new BankAccount(name, address, accountType, accountNumber, balance);
+    Scanner console() {
+        if (console == null) {
+            console = new Scanner(System.in);
+        }
+        return console;
+    }
 
-            if (head == null) {
-                head = newAccount;
-            } else {
-                BankAccount current = head;
-                while (current.next != null) {
-                    current = current.next;
-                }
-                current.next = newAccount;
+    private String readLine(String prompt) {
+        System.out.print(prompt);
+        return console().nextLine();
+    }
+
+    private long readAmount(String prompt) {
+        while (true) {
+            try {
+                return Money.parse(readLine(prompt));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid input. Please enter an amount such as 120 or 120.50.");
+            }
+        }
+    }
+
+    private int readInt(String prompt) {
+        while (true) {
+            String line = readLine(prompt).trim();
+            try {
+                return Integer.parseInt(line);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Please enter a valid number.");
             }
+        }
+    }
+
+    public void openAccount() {
+        String name = readLine("Enter your full name: ");
+        while (!name.matches("[a-zA-Z ]+")) {
+            System.out.println("Name must contain only letters.");
+            name = readLine("Please enter a valid name: ");
+        }
+
+        String address = readLine("Enter your address: ");
+
+        String accountType = readLine("What type of account you want to open (savings/current): ").toLowerCase();
+        while (!accountType.equals("savings") && !accountType.equals("current")) {
+            System.out.println("Invalid account type. Please enter 'savings' or 'current'.");
+            accountType = readLine("Please enter a valid account type: ").toLowerCase();
+        }
 
-            tbalance += newAccount.balance;
-            System.out.println("Your account is created . Account number: " + newAccount.accountNumber);
+        long balance = readAmount("Enter amount for deposit: ");
+        while (balance <= 0) {
+            System.out.println("Deposit amount must be greater than zero.");
+            balance = readAmount("Enter amount for deposit: ");
+        }
 
-            int customerIndex = newAccount.accountNumber % 10;
-            customerGraph.addEdge(customerIndex, newAccount);
-            accounts.add(newAccount); // Add the new account to the list
-            saveAccountsToFile("accounts.txt");
-        } catch (Exception e) {
+        try {
+            int accountNumber = openAccount(name, address, accountType, balance);
+            System.out.println("Your account is created . Account number: " + accountNumber);
+        } catch (IllegalArgumentException e) {
             System.out.println("Error creating account: " + e.getMessage());
         }
     }
 
     public void depositMoney() {
-        Scanner scanner = new Scanner(System.in);
-
-        System.out.print("Enter account number to deposit money: ");
-        int accountNumber = scanner.nextInt();
+        int accountNumber = readInt("Enter account number to deposit money: ");
 
-        BankAccount account = findAccount(accountNumber);
+        if (exists(accountNumber)) {
+            long amount = readAmount("Enter amount to deposit: ");
 
-        if (account != null) {
-            System.out.print("Enter amount to deposit: ");
-            int amount = scanner.nextInt();
-
-            if (amount > 0) {
-                account.balance += amount;
-                tbalance += amount;
-                System.out.println("Deposit successful. New balance: " + account.balance);
-                transactionStack.push(account);
-                saveAccountsToFile("accounts.txt");
-
-                int customerIndex = accountNumber % 10;
-                customerGraph.addEdge(customerIndex, account);
+            Status status = deposit(accountNumber, amount);
+            if (status == Status.OK) {
+                System.out.println("Deposit successful. New balance: "
+                        + Money.format(getBalance(accountNumber).getAsLong()));
+            } else if (status == Status.BALANCE_OVERFLOW) {
+                System.out.println("Deposit refused: the balance would exceed the maximum.");
             } else {
                 System.out.println("Invalid deposit amount.");
             }
         } else {
-            System.out.println("Account not found.");
+            System.out.println(accountNotFound(accountNumber));
         }
     }
 
     public void withdrawMoney() {
-        Scanner scanner = new Scanner(System.in);
+        int accountNumber = readInt("Enter account number to withdraw money: ");
 
-        System.out.print("Enter account number to withdraw money: ");
-        int accountNumber = scanner.nextInt();
-
-        BankAccount account = findAccount(accountNumber);
+        if (exists(accountNumber)) {
+            long amount = readAmount("Enter amount to withdraw: ");
 
-        if (account != null) {
-            System.out.print("Enter amount to withdraw: ");
-            int amount = scanner.nextInt();
-
-            if (amount > 0 && amount <= account.balance) {
-                account.balance -= amount;
-                tbalance -= amount;
-                System.out.println("Withdrawal successful. New balance: " + account.balance);
-                saveAccountsToFile("accounts.txt");
-                transactionStack.push(account);
-
-                int customerIndex = accountNumber % 10;
-                customerGraph.addEdge(customerIndex, account);
+            if (withdraw(accountNumber, amount) == Status.OK) {
+                System.out.println("Withdrawal successful. New balance: "
+                        + Money.format(getBalance(accountNumber).getAsLong()));
             } else {
                 System.out.println("Invalid withdrawal amount or insufficient funds.");
             }
         } else {
-            System.out.println("Account not found.");
+            System.out.println(accountNotFound(accountNumber));
         }
     }
 
     public void processTransactions() {
-        Scanner scanner = new Scanner(System.in);
-
-        System.out.print("Enter account number to process transactions: ");
-        int accountNumber = scanner.nextInt();
-
-        BankAccount account = findAccount(accountNumber);
-
-        if (account != null) {
-            int totalTransactionAmount = 0;
-            Stack<BankAccount.Transaction> transactionStack = new Stack<>();
+        int accountNumber = readInt("Enter account number to process transactions: ");
+
+        if (exists(accountNumber)) {
+            String batch = readLine("Amounts separated by commas to debit as one batch "
+                    + "(blank to enter them one at a time): ").trim();
+            if (!batch.isEmpty()) {
+                processBatch(accountNumber, batch.split(","));
+                return;
+            }
+            long totalTransactionAmount = 0;
+            int withdrawals = 0;
 
             while (true) {
-                System.out.print("Enter amount for transaction (or -1 to exit): ");
-                int amount = scanner.nextInt();
+                long amount = readAmount("Enter amount for transaction (or -1 to exit): ");
 
-                if (amount == -1) {
+                if (amount == -Money.MINOR_PER_MAJOR) {
                     break;
                 }
 
                 if (amount >= 0) {
-                    if (account.balance - amount >= 0) {
-                        account.balance -= amount;
-                        tbalance -= amount;
+                    if (amount == 0 || withdraw(accountNumber, amount) == Status.OK) {
                         totalTransactionAmount += amount;
-                        System.out.println("Transaction successful. New balance: " + account.balance);
-
-                        BankAccount.Transaction transaction = new BankAccount.Transaction(amount);
-                        transactionStack.push(transaction);
-
-                        int customerIndex = accountNumber % 10;
-                        customerGraph.addEdge(customerIndex, account);
+                        System.out.println("Transaction successful. New balance: "
+                                + Money.format(getBalance(accountNumber).getAsLong()));
+                        if (amount > 0) {
+                            withdrawals++;
+                        }
                     } else {
                         System.out.println("Invalid transaction. Insufficient funds.");
                     }
@@ -369,75 +1856,359 @@ public class Bank {
                 }
             }
 
-            System.out.println("Total balance after transactions: " + account.balance);
+            System.out.println("Total balance after transactions: "
+                    + Money.format(getBalance(accountNumber).getAsLong()));
             System.out.println("Transaction bill:");
 
-            while (!transactionStack.isEmpty()) {
-                System.out.println(transactionStack.pop());
-                System.out.println("---------------------");
+            try {
+                for (BankAccount.Transaction transaction : recentTransactions(accountNumber, withdrawals)) {
+                    System.out.println(transaction);
+                    System.out.println("---------------------");
+                }
+            } catch (IOException e) {
+                System.err.println("Could not read the ledger: " + e.getMessage());
             }
         } else {
-            System.out.println("Account not found.");
+            System.out.println(accountNotFound(accountNumber));
         }
     }
 
-    public void displayAccount() {
-        Scanner scanner = new Scanner(System.in);
+    private void processBatch(int accountNumber, String[] items) {
+        long[] amounts = new long[items.length];
+        try {
+            for (int i = 0; i < items.length; i++) {
+                amounts[i] = Money.parse(items[i]);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid transaction amount: " + e.getMessage());
+            return;
+        }
+        DebitBatchResult result = debitBatch(accountNumber, amounts);
+        if (result.status == Status.INSUFFICIENT_FUNDS) {
+            System.out.println("Invalid transaction. Insufficient funds.");
+        } else if (result.status != Status.OK) {
+            System.out.println("Invalid transaction amount.");
+        } else {
+            try {
+                result.writeBill(System.out);
+            } catch (IOException e) {
+                System.err.println("Could not write the bill: " + e.getMessage());
+            }
+            System.out.println("Total balance after transactions: "
+                    + Money.format(getBalance(accountNumber).getAsLong()));
+        }
+    }
+
+    // Settles a card-settlement file: the account number on the first line,
+    // then one debit amount per line, applied with debitBatch(). Blank lines
+    // and lines starting with '#' are skipped. Prints the bill and a summary.
+    private void settle(String filename) {
+        boolean haveAccount = false;
+        int accountNumber = 0;
+        long[] amounts = new long[1024];
+        int count = 0;
+        int lineNumber = 0;
+        try (ByteLines lines = new ByteLines(new FileInputStream(filename))) {
+            while (lines.next()) {
+                lineNumber++;
+                byte[] text = lines.bytes();
+                int to = lines.length();
+                if (to == 0 || text[0] == '#') {
+                    continue;
+                }
+                try {
+                    if (!haveAccount) {
+                        accountNumber = Integer.parseInt(new String(text, 0, to, StandardCharsets.ISO_8859_1).trim());
+                        haveAccount = true;
+                    } else {
+                        if (count == amounts.length) {
+                            amounts = Arrays.copyOf(amounts, count * 2);
+                        }
+                        amounts[count++] = Money.parse(text, 0, to);
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.err.println(filename + ":" + lineNumber + ": " + e.getMessage());
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read " + filename + ": " + e.getMessage());
+            return;
+        }
+        if (!haveAccount) {
+            System.err.println(filename + ": no account number");
+            return;
+        }
+        DebitBatchResult result = debitBatch(accountNumber, Arrays.copyOf(amounts, count));
+        if (result.status == Status.OK) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BILL_CHUNK);
+            try {
+                result.writeBill(out);
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Could not write the bill: " + e.getMessage());
+            }
+        }
+        System.out.println(result);
+    }
+
+    // Splits a stream into lines a chunk at a time, handing each one out in a
+    // reused byte buffer, so a settlement file of any size is read with a
+    // fixed amount of memory and no String per line. A '\r' before the '\n'
+    // is dropped.
+    private static final class ByteLines implements Closeable {
+        private final InputStream in;
+        private final byte[] chunk = new byte[BILL_CHUNK];
+        private int position;
+        private int filled;
+        private byte[] line = new byte[128];
+        private int length;
+
+        ByteLines(InputStream in) {
+            this.in = in;
+        }
+
+        // Moves to the next line; false at the end of the stream.
+        boolean next() throws IOException {
+            length = 0;
+            boolean any = false;
+            while (true) {
+                if (position == filled) {
+                    filled = in.read(chunk);
+                    position = 0;
+                    if (filled < 0) {
+                        filled = 0;
+                        return any && trimmed();
+                    }
+                }
+                any = true;
+                int from = position;
+                while (position < filled && chunk[position] != '\n') {
+                    position++;
+                }
+                if (length + position - from > line.length) {
+                    line = Arrays.copyOf(line, Math.max(line.length * 2, length + position - from));
+                }
+                System.arraycopy(chunk, from, line, length, position - from);
+                length += position - from;
+                if (position < filled) {
+                    position++;
+                    return trimmed();
+                }
+            }
+        }
 
-        System.out.print("Enter account number to display account details: ");
-        int accountNumber = scanner.nextInt();
+        private boolean trimmed() {
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return true;
+        }
+
+        byte[] bytes() {
+            return line;
+        }
+
+        int length() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    public void printStatement() {
+        int accountNumber = readInt("Enter account number for the statement: ");
+        if (!exists(accountNumber)) {
+            System.out.println(accountNotFound(accountNumber));
+            return;
+        }
+        long from = readDate("From date (yyyy-MM-dd, blank for the beginning): ", Long.MIN_VALUE);
+        long to = readDate("To date, inclusive (yyyy-MM-dd, blank for the latest): ", Long.MAX_VALUE);
+        if (to != Long.MAX_VALUE) {
+            to += 24L * 60 * 60 * 1000;
+        }
+        System.out.println("Statement for account " + accountNumber + ":");
+        long[] count = new long[1];
+        try {
+            forEachTransaction(accountNumber, from, to, transaction -> {
+                System.out.println(transaction);
+                System.out.println("---------------------");
+                count[0]++;
+            });
+        } catch (IOException e) {
+            System.err.println("Could not read the ledger: " + e.getMessage());
+        }
+        System.out.println(count[0] + " transactions.");
+    }
+
+    // Start of the given day in local time, or `blank` if nothing was entered.
+    private long readDate(String prompt, long blank) {
+        while (true) {
+            String line = readLine(prompt).trim();
+            if (line.isEmpty()) {
+                return blank;
+            }
+            try {
+                DateTimeFormatter format = BankAccount.Transaction.DATE_FORMAT;
+                return LocalDate.parse(line, format).atStartOfDay(format.getZone()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                System.out.println("Please enter a date as yyyy-MM-dd.");
+            }
+        }
+    }
+
+    public void searchCustomers() {
+        String name = readLine("Name starts with (blank for any): ").trim();
+        String place = readLine("Address contains the word, e.g. a city (blank for any): ").trim();
+        String type = readLine("Account type, savings or current (blank for any): ").trim().toLowerCase();
+        List<BankAccount> found = search(name.isEmpty() ? null : name, place.isEmpty() ? null : place,
+                type.isEmpty() ? null : type);
+        System.out.println(found.size() + " customer(s) found.");
+        for (int from = 0; from < found.size(); from += SEARCH_PAGE) {
+            for (BankAccount account : found.subList(from, Math.min(from + SEARCH_PAGE, found.size()))) {
+                System.out.println(account.accountNumber + "  " + account.name() + ", " + account.address() + " ("
+                        + account.accountType + ")");
+            }
+            if (from + SEARCH_PAGE < found.size() && !readLine("More? (y/n): ").trim().equalsIgnoreCase("y")) {
+                break;
+            }
+        }
+    }
+
+    public void displayAccount() {
+        int accountNumber = readInt("Enter account number to display account details: ");
 
         BankAccount account = findAccount(accountNumber);
 
         if (account != null) {
-            System.out.println("Name: " + account.name);
-            System.out.println("Address: " + account.address);
+            System.out.println("Name: " + account.name());
+            System.out.println("Address: " + account.address());
             System.out.println("Type of account: " + account.accountType);
-            System.out.println("Amount deposited: " + account.balance);
+            System.out.println("Amount deposited: " + Money.format(account.balance));
+            customerGraph.displayCustomerInfo(accountNumber, 5);
         } else {
-            System.out.println("Account not found.");
+            System.out.println(accountNotFound(accountNumber));
         }
     }
 
+    // Account numbers end in a check digit, so most typos can be pointed out.
+    private static String accountNotFound(int accountNumber) {
+        return AccountNumbers.isValid(accountNumber) ? "Account not found."
+                : "Account not found. Please check the number: its last digit does not match.";
+    }
+
+    public static boolean isValidAccountNumber(int accountNumber) {
+        return AccountNumbers.isValid(accountNumber);
+    }
+
+    Metrics metrics() {
+        return metrics;
+    }
+
+    // Accounts known to the bank, including store accounts not yet looked up.
+    private int accountCount() {
+        return store != null ? Math.max(store.size(), accounts.size()) : accounts.size();
+    }
+
+    // A detached copy of the account, or null if there is none.
     private BankAccount findAccount(int accountNumber) {
-        sortByAccountNumber();
-        int left = 0;
-        int right = accounts.size() - 1;
-        while (left <= right) {
-            int mid = left + (right - left) / 2;
-            BankAccount midAccount = accounts.get(mid);
-
-            if (midAccount.accountNumber == accountNumber) {
-                return midAccount;
-            } else if (midAccount.accountNumber < accountNumber) {
-                left = mid + 1;
-            } else {
-                right = mid - 1; // Search in the left half
+        if (cache != null) {
+            int stripe = stripeOf(accountNumber);
+            stripes[stripe].lock();
+            try {
+                int entry = findCached(stripe, accountNumber);
+                if (entry < 0) {
+                    return null;
+                }
+                BankAccount account = store.load(cache.slot(entry));
+                account.balance = cache.balance(entry);
+                return account;
+            } catch (IOException e) {
+                System.err.println("Account store read failed: " + e.getMessage());
+                return null;
+            } finally {
+                stripes[stripe].unlock();
             }
         }
-        return null; // Account not found
+        int row = rowOf(accountNumber);
+        return row < 0 ? null : accounts.get(row);
     }
 
-    public void transfer_fund() {
-        Scanner scanner = new Scanner(System.in);
+    // Whether the account exists, without loading it into the table or the cache.
+    private boolean exists(int accountNumber) {
+        return cache != null ? store.slotOf(accountNumber) >= 0 : rowOf(accountNumber) >= 0;
+    }
+
+    // The account's cache entry, or -1; timed like rowOf(). Caller holds the stripe.
+    private int findCached(int stripe, int accountNumber) {
+        long start = System.nanoTime();
+        int entry = cache.find(stripe, accountNumber);
+        metrics.record(Metrics.Op.FIND_ACCOUNT, start);
+        return entry;
+    }
+
+    // The account's row in `accounts`, or -1. With a mapped store the account
+    // is loaded into the table on first lookup.
+    private int rowOf(int accountNumber) {
+        long start = System.nanoTime();
+        int row;
+        structureLock.readLock().lock();
+        try {
+            row = accounts.rowOf(accountNumber);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        if (row < 0 && store != null) {
+            structureLock.writeLock().lock();
+            try {
+                row = accounts.rowOf(accountNumber);
+                int slot = store.slotOf(accountNumber);
+                if (row < 0 && slot >= 0) {
+                    row = accounts.append(store.load(slot));
+                }
+            } catch (IOException e) {
+                System.err.println("Account store read failed: " + e.getMessage());
+            } finally {
+                structureLock.writeLock().unlock();
+            }
+        }
+        metrics.record(Metrics.Op.FIND_ACCOUNT, start);
+        return row;
+    }
 
+    public void transfer_fund() {
         System.out.println("--------------------------------------------------------------------- ");
         System.out.println("                   Looking for fund transfer to another account-         ");
-        System.out.print("Enter the amount you want to transfer: ");
-        int fund = scanner.nextInt();
-
-        if (fund <= tbalance) {
-            System.out.print("Enter account_number you want to transfer money: ");
-            int a_n = scanner.nextInt();
-            int t = tbalance - fund;
+        int from = readInt("Enter your account number: ");
+        if (!exists(from)) {
+            System.out.println(accountNotFound(from));
+            return;
+        }
+        int a_n = readInt("Enter account_number you want to transfer money: ");
+        if (!exists(a_n) || a_n == from) {
+            System.out.println("Account not found. Cannot transfer to this account.");
+            return;
+        }
+        long fund = readAmount("Enter the amount you want to transfer: ");
+
+        Status status = transfer(from, a_n, fund);
+        if (status == Status.INVALID_AMOUNT) {
+            System.out.println("Invalid transfer amount.");
+        } else if (status == Status.BALANCE_OVERFLOW) {
+            System.out.println("Transfer refused: the receiving balance would exceed the maximum.");
+        } else if (status == Status.OK) {
             System.out.println("Your fund is successfully transferred to account number " + a_n + "!");
-            System.out.println("After the transaction, your current balance becomes: " + t);
+            System.out.println("After the transaction, your current balance becomes: "
+                    + Money.format(getBalance(from).getAsLong()));
             System.out.println(
                     "------------------------------------------------------------------------------------------");
         } else {
-            System.out.print(
-                    "You don't have enough money to transfer, do you have another account to link with? (yes/no): ");
-            String b = scanner.next();
+            String b = readLine(
+                    "You don't have enough money to transfer, do you have another account to link with? (yes/no): ")
+                    .trim();
             if (b.equals("yes")) {
                 account_linking(200);
             } else {
@@ -447,42 +2218,33 @@ public class Bank {
     }
 
     public void calinterest() {
-        Scanner scanner = new Scanner(System.in);
-
         System.out.println("--------------------------------------------------------------------- ");
         System.out.println("                   Interest calculation of current balance-          ");
-        System.out.print("Enter Account number: ");
-        int accountNumber = scanner.nextInt();
+        int accountNumber = readInt("Enter Account number: ");
 
         BankAccount account = findAccount(accountNumber);
 
         if (account != null) {
-            System.out.print("Enter Account type (current / saving): ");
-            String type = scanner.next();
-
-            if (type.equals("saving") || type.equals("savings")) {
-                int interest = (int) (0.05 * account.balance);
-                int totalAmount = account.balance + interest;
-                System.out.println("Interest calculated for the month: " + interest);
-                System.out.println("Your current amount with 0.5% interest is: " + totalAmount);
+            if (account.accountType.equals("savings")) {
+                long totalAmount = withInterest(account.balance, INTEREST_BASIS_POINTS);
+                System.out.println("Interest calculated for the month: " + Money.format(totalAmount - account.balance));
+                System.out.println("Your amount with " + (INTEREST_BASIS_POINTS / 100.0) + "% interest will be: "
+                        + Money.format(totalAmount));
             } else {
                 System.out.println("No interest for the current account.");
             }
         } else {
-            System.out.println("Account not found.");
+            System.out.println(accountNotFound(accountNumber));
         }
     }
 
     public void account_linking(int a_mount) {
-        Scanner scanner = new Scanner(System.in);
-
-        System.out.print("Enter the account number of the account for linking: ");
-        int linkedAccountNumber = scanner.nextInt();
+        int linkedAccountNumber = readInt("Enter the account number of the account for linking: ");
         BankAccount linkedAccount = findAccount(linkedAccountNumber);
         if (linkedAccount != null) {
-            System.out.println("In the linked account, the balance is: " + linkedAccount.balance);
-            int total_balance = a_mount + tbalance + linkedAccount.balance;
-            System.out.println("By linking this account, your total balance is: " + total_balance);
+            System.out.println("In the linked account, the balance is: " + Money.format(linkedAccount.balance));
+            long total_balance = Money.ofMajor(a_mount) + tbalance.sum() + linkedAccount.balance;
+            System.out.println("By linking this account, your total balance is: " + Money.format(total_balance));
         } else {
             System.out.println("Account not found. Cannot link to a non-existent account.");
         }
@@ -490,56 +2252,193 @@ public class Bank {
 
     void exitProgram() {
         System.out.println("Exiting the program.");
+        shutdown();
         System.exit(0); // Exiting the program
     }
 
-    private static void displaySortedAccounts(Bank bank, Scanner scanner) {
+    // Serves the network protocol until "stop" is typed on the console. With
+    // no console (input closed), serves until the process is killed; the
+    // journal is synced on exit either way.
+    private void serve(String port) {
+        try (BankServer server = new BankServer(this, Integer.parseInt(port))) {
+            server.start();
+            System.out.println("Serving on localhost:" + server.port() + ". Type stop to shut down.");
+            while (console().hasNextLine()) {
+                if (console().nextLine().trim().equals("stop")) {
+                    return;
+                }
+            }
+            server.join();
+        } catch (NumberFormatException e) {
+            System.err.println("Port must be a number: " + port);
+        } catch (IOException e) {
+            System.err.println("Could not serve on port " + port + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void displaySortedAccounts(Bank bank) {
         System.out.println("How would you like to display the accounts?");
         System.out.println("1) Sort by name");
         System.out.println("2) Sort by account number");
         System.out.println("3) Sort by account type");
-        System.out.print("Enter your choice: ");
-        int sortChoice = scanner.nextInt();
+        int sortChoice = bank.readInt("Enter your choice: ");
 
+        List<BankAccount> listing;
         switch (sortChoice) {
             case 1:
-                bank.sortByName();
+                listing = bank.sortByName();
+                System.out.println("Accounts sorted by name.");
                 break;
 
             case 2:
-                bank.sortByAccountNumber();
+                listing = bank.sortByAccountNumber();
+                System.out.println("Accounts sorted by account number.");
                 break;
 
             case 3:
-                bank.sortByAccountType();
+                listing = bank.sortByAccountType();
+                System.out.println("Accounts sorted by account type.");
                 break;
 
             default:
                 System.out.println("Invalid choice. Accounts will be displayed without sorting.");
+                listing = bank.unsortedListing();
         }
 
-        bank.customerGraph.displayCustomerInfo();
+        System.out.println("Customer Information:");
+        for (BankAccount account : listing) {
+            System.out.println("Customer Name: " + account.name());
+            System.out.println("Account Number: " + account.accountNumber);
+            System.out.println("Account Type: " + account.accountType);
+            System.out.println("---------------------");
+        }
     }
 
     public static void main(String[] args) {
+        if (args.length == 3 && args[0].equals("convert")) {
+            convertToStore(args[1], args[2]);
+            return;
+        }
+        if (args.length == 4 && args[0].equals("reshard")) {
+            try {
+                reshard(args[1], args[2], Integer.parseInt(args[3]));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Shard count must be a number between 1 and 1000: " + args[3]);
+            }
+            return;
+        }
+        if ((args.length == 4 || args.length == 5) && args[0].equals("loadgen")) {
+            try {
+                int window = args.length == 5 ? Integer.parseInt(args[4]) : 16;
+                LoadGenerator load = new LoadGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]), window);
+                System.out.println(load.run(Integer.parseInt(args[3])));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Usage: loadgen <port> <connections> <seconds> [window]: " + e.getMessage());
+            } catch (IOException | InterruptedException e) {
+                System.err.println("Load generator failed: " + e.getMessage());
+            }
+            return;
+        }
+        String snapshotFile = SNAPSHOT_FILE;
+        String storeFile = null;
+        String batchFile = null;
+        String interestPeriod = null;
+        String metricsInterval = null;
+        String servePort = null;
+        String cachedAccounts = null;
+        String settlementFile = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--store")) {
+                storeFile = args[i + 1];
+            } else if (args[i].equals("--snapshot")) {
+                snapshotFile = args[i + 1];
+            } else if (args[i].equals("--batch")) {
+                batchFile = args[i + 1];
+            } else if (args[i].equals("--accrue-interest")) {
+                interestPeriod = args[i + 1];
+            } else if (args[i].equals("--metrics")) {
+                metricsInterval = args[i + 1];
+            } else if (args[i].equals("--serve")) {
+                servePort = args[i + 1];
+            } else if (args[i].equals("--cache")) {
+                cachedAccounts = args[i + 1];
+            } else if (args[i].equals("--settle")) {
+                settlementFile = args[i + 1];
+            }
+        }
+
         Bank bank = new Bank();
-        Scanner scanner = new Scanner(System.in);
-
-        int choice;
-        do {
-            System.out.println("1) Open account");
-            System.out.println("2) Deposit money");
-            System.out.println("3) Withdraw money");
-            System.out.println("4) Display Customer Information");
-            System.out.println("5) Process transactions and exit");
-            System.out.println("6) Transfer fund");
-            System.out.println("7) Calculate interest");
-            System.out.println("8) Account Linking");
-            System.out.println("9) Display Account");
-            System.out.println("10) Exit");
-
-            System.out.print("Please select an option: ");
-            choice = scanner.nextInt();
+        try {
+            bank.metrics.register("bank");
+        } catch (JMException e) {
+            System.err.println("Metrics not published over JMX: " + e.getMessage());
+        }
+        if (metricsInterval != null) {
+            try {
+                bank.metrics.startReporting(Long.parseLong(metricsInterval), System.err);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Metrics interval must be a number of seconds: " + metricsInterval);
+            }
+        }
+        if (storeFile != null) {
+            int cacheSize = 0;
+            if (cachedAccounts != null) {
+                try {
+                    cacheSize = Integer.parseInt(cachedAccounts);
+                } catch (NumberFormatException e) {
+                    System.err.println("Cache size must be a number of accounts: " + cachedAccounts);
+                }
+            }
+            try {
+                bank.recoverFromStore(storeFile, journalFor(storeFile), cacheSize);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+        } else {
+            bank.recover(snapshotFile, journalFor(snapshotFile));
+        }
+        if (servePort != null) {
+            bank.serve(servePort);
+            bank.shutdown();
+            return;
+        }
+        if (settlementFile != null) {
+            bank.settle(settlementFile);
+            bank.shutdown();
+            return;
+        }
+        if (batchFile != null) {
+            try {
+                System.out.println(new CommandBatch(bank).run(batchFile));
+            } catch (IOException e) {
+                System.err.println("Batch failed: " + e.getMessage());
+            }
+            bank.shutdown();
+            return;
+        }
+        if (interestPeriod != null) {
+            try {
+                System.out.println(bank.accrueInterest(Integer.parseInt(interestPeriod)));
+            } catch (NumberFormatException e) {
+                System.err.println("Period must be a month as yyyyMM: " + interestPeriod);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+            } catch (IOException e) {
+                System.err.println("Interest run failed: " + e.getMessage());
+            }
+            bank.shutdown();
+            return;
+        }
+
+        while (true) {
+            for (int i = 0; i < MENU.length; i++) {
+                System.out.println((i + 1) + ") " + MENU[i]);
+            }
+
+            int choice = bank.readInt("Please select an option: ");
 
             switch (choice) {
                 case 1:
@@ -552,38 +2451,39 @@ public class Bank {
                     bank.withdrawMoney();
                     break;
                 case 4:
-                    displaySortedAccounts(bank, scanner);
-                    // jabbank.customerGraph.displayCustomerInfo();
-                    bank.saveAccountsToFile("accounts.txt");
-                    bank.sortByAccountNumber();
-                    bank.loadAccountsFromFile("accounts.txt");
+                    displaySortedAccounts(bank);
                     break;
                 case 5:
                     bank.processTransactions();
-                    bank.saveAccountsToFile("accounts.txt");
                     System.out.println("Exit");
                     break;
                 case 6:
                     bank.transfer_fund();
-                    bank.saveAccountsToFile("accounts.txt");
                     break;
                 case 7:
                     bank.calinterest();
                     break;
                 case 8:
                     bank.account_linking(200);
-                    bank.saveAccountsToFile("accounts.txt");
                     break;
                 case 9:
                     bank.displayAccount();
                     break;
-                case 10:
+                case EXIT_CHOICE:
                     bank.exitProgram();
-                    bank.saveAccountsToFile("accounts.txt");
+                    return;
+                case 11:
+                    bank.printStatement();
+                    break;
+                case 12:
+                    bank.searchCustomers();
+                    break;
+                case 13:
+                    System.out.println(bank.holdings());
                     break;
                 default:
                     System.out.println("Invalid choice. Please try again.");
             }
-        } while (choice != 11);
+        }
     }
 }
\ No newline at end of file
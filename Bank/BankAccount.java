@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+
+// One account as a value. Accounts are stored in an AccountTable; this is how
+// they are read from files, passed to it, and handed out of it as copies.
+class BankAccount {
+    // Null until first use for accounts loaded from a snapshot; see name().
+    // Volatile, as copies are shared between threads: decodeBody() sets the
+    // address before the name, so a thread that sees a name sees the address.
+    private volatile String name;
+    private volatile String address;
+    // Where the undecoded body lives; null for accounts built from strings.
+    final BodySegment bodySource;
+    final int bodyOffset;
+    final int bodyLength;
+    String accountType;
+    int accountNumber;
+    // In minor units (cents); see Money.
+    long balance;
+
+    public BankAccount(String name, String address, String accountType, int accountNumber, long balance) {
+        this.name = name;
+        this.address = address;
+        this.accountType = accountType;
+        this.accountNumber = accountNumber;
+        this.balance = balance;
+        this.bodySource = null;
+        this.bodyOffset = 0;
+        this.bodyLength = 0;
+    }
+
+    // An account whose name and address are still undecoded bytes in a snapshot file or arena.
+    BankAccount(BodySegment bodySource, int bodyOffset, int bodyLength, String accountType, int accountNumber,
+            long balance) {
+        this.bodySource = bodySource;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
+        this.accountType = accountType;
+        this.accountNumber = accountNumber;
+        this.balance = balance;
+    }
+
+    // Decoding is idempotent, so two threads racing here both store equal strings.
+    String name() {
+        String value = name;
+        if (value == null) {
+            decodeBody();
+            value = name;
+        }
+        return value;
+    }
+
+    String address() {
+        String value = address;
+        if (value == null) {
+            decodeBody();
+            value = address;
+        }
+        return value;
+    }
+
+    private void decodeBody() {
+        String[] body = bodySource.body(bodyOffset, bodyLength);
+        address = body[1];
+        name = body[0];
+    }
+
+    // Name and address lines, copied raw if they were never decoded.
+    void writeBody(OutputStream out) throws IOException {
+        String decoded = name;
+        if (decoded == null) {
+            bodySource.copyBody(bodyOffset, bodyLength, out);
+        } else {
+            SnapshotFile.writeLine(out, decoded);
+            out.write(address.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public String toString() {
+        return "Name: " + name() + "\n" +
+                "Address: " + address() + "\n" +
+                "Type of account: " + accountType + "\n" +
+                "Amount deposited: " + Money.format(balance);
+    }
+
+    // One ledger entry. For transfers `accountNumber` paid `counterparty`.
+    static class Transaction {
+        // DateTimeFormatter is immutable, so one instance serves every thread.
+        static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+                .withZone(ZoneId.systemDefault());
+        // Statement date ranges, read in the same zone as TIME_FORMAT prints.
+        static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd")
+                .withResolverStyle(ResolverStyle.STRICT)
+                .withZone(ZoneId.systemDefault());
+
+        long transactionId;
+        long time;
+        byte type;
+        int accountNumber;
+        int counterparty;
+        long amount;
+
+        public Transaction(long transactionId, long time, byte type, int accountNumber, int counterparty,
+                long amount) {
+            this.transactionId = transactionId;
+            this.time = time;
+            this.type = type;
+            this.accountNumber = accountNumber;
+            this.counterparty = counterparty;
+            this.amount = amount;
+        }
+
+        String description() {
+            switch (type) {
+                case Journal.DEPOSIT:
+                    return "Deposit";
+                case Journal.WITHDRAW:
+                    return "Withdrawal";
+                case Journal.INTEREST:
+                    return "Interest";
+                default:
+                    return "Transfer from " + accountNumber + " to " + counterparty;
+            }
+        }
+
+        public String toString() {
+            return String.format("Transaction ID: %d\nDate: %s\nType: %s\nAmount: %s", transactionId,
+                    TIME_FORMAT.format(Instant.ofEpochMilli(time)), description(), Money.format(amount));
+        }
+    }
+}
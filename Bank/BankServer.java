@@ -0,0 +1,122 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Serves the Bank over TCP on the loopback interface, one thread per
+// connection. The protocol is CommandBatch's, one command per line in and
+// one reply per line out, in order:
+//
+//   deposit,10009,120.50    ->  OK
+//   balance,10009           ->  OK 120.50
+//   withdraw,10009,1000     ->  INSUFFICIENT_FUNDS
+//   open,Ravi,Indore,savings,100  ->  OK 10017
+//
+// Clients may pipeline: send many lines before reading the replies. Replies
+// are buffered and only flushed once every request already received has
+// been answered, so a pipelined burst costs one write instead of one each.
+class BankServer implements Closeable {
+    private final Bank bank;
+    private final ServerSocket listener;
+    private final ExecutorService connections = threadPerTaskExecutor();
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+
+    BankServer(Bank bank, int port) throws IOException {
+        this.bank = bank;
+        listener = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::acceptLoop, "bank-server-accept");
+    }
+
+    // Virtual threads where the JDK has them (21 and later), so thousands of
+    // mostly idle connections cost little; otherwise ordinary threads. The
+    // lookup is reflective because these sources still build for Java 17.
+    static ExecutorService threadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    int port() {
+        return listener.getLocalPort();
+    }
+
+    void start() {
+        acceptor.start();
+    }
+
+    private void acceptLoop() {
+        while (!listener.isClosed()) {
+            try {
+                Socket socket = listener.accept();
+                open.add(socket);
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!listener.isClosed()) {
+                    System.err.println("Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        CommandBatch commands = new CommandBatch(bank);
+        try (Socket s = socket;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8), 1 << 14);
+                Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8),
+                        1 << 14)) {
+            s.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals("quit")) {
+                    break;
+                }
+                out.write(commands.reply(line));
+                out.write('\n');
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // The client went away mid-request; nothing to answer.
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    // Returns once the server has been closed.
+    void join() throws InterruptedException {
+        acceptor.join();
+    }
+
+    // Stops accepting, disconnects every client and waits for requests in
+    // flight to finish, so the Bank can be shut down safely afterwards.
+    public void close() throws IOException {
+        listener.close();
+        try {
+            acceptor.join();
+            for (Socket socket : open) {
+                socket.close();
+            }
+            connections.shutdown();
+            connections.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A block of account bodies: each one is a name line, a line break and an
+// address line, in UTF-8, addressed by (offset, length). Either a read-only
+// mapping of a snapshot file or an off-heap arena that new accounts are
+// appended to, so neither kind of body costs heap per account.
+class BodySegment {
+    private final ByteBuffer bytes;
+    private int used;
+
+    BodySegment(ByteBuffer mapped) {
+        bytes = mapped;
+        used = mapped.capacity();
+    }
+
+    static BodySegment allocate(int capacity) {
+        BodySegment segment = new BodySegment(ByteBuffer.allocateDirect(capacity));
+        segment.used = 0;
+        return segment;
+    }
+
+    // Appends a body and returns its offset, or -1 if it does not fit. Single writer only.
+    int append(byte[] name, byte[] address) {
+        if (bytes.capacity() - used < name.length + 1 + address.length) {
+            return -1;
+        }
+        int offset = used;
+        bytes.put(offset, name);
+        bytes.put(offset + name.length, (byte) '\n');
+        bytes.put(offset + name.length + 1, address);
+        used += name.length + 1 + address.length;
+        return offset;
+    }
+
+    // Decodes the body at [offset, offset + length) into { name, address }.
+    String[] body(int offset, int length) {
+        byte[] body = new byte[length];
+        bytes.get(offset, body);
+        int newline = 0;
+        while (newline < length && body[newline] != '\n') {
+            newline++;
+        }
+        int nameEnd = newline > 0 && body[newline - 1] == '\r' ? newline - 1 : newline;
+        int addressStart = Math.min(newline + 1, length);
+        return new String[] { new String(body, 0, nameEnd, StandardCharsets.UTF_8),
+                new String(body, addressStart, length - addressStart, StandardCharsets.UTF_8) };
+    }
+
+    // Compares two name lines byte by byte, unsigned, without decoding them.
+    static int compareNames(BodySegment a, int offsetA, int lengthA, BodySegment b, int offsetB, int lengthB) {
+        for (int i = 0;; i++) {
+            int x = a.nameByte(offsetA + i, offsetA + lengthA);
+            int y = b.nameByte(offsetB + i, offsetB + lengthB);
+            if (x != y || x < 0) {
+                return x - y;
+            }
+        }
+    }
+
+    // Compares the name line at [offset, offset + length) with the start of
+    // `prefix`: zero if the name starts with it, otherwise the sign of
+    // compareNames() against the prefix.
+    int compareNamePrefix(int offset, int length, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            int x = nameByte(offset + i, offset + length);
+            if (x != (prefix[i] & 0xFF)) {
+                return x < 0 ? -1 : x - (prefix[i] & 0xFF);
+            }
+        }
+        return 0;
+    }
+
+    // The name byte at `position`, unsigned, or -1 where the name line ends.
+    private int nameByte(int position, int end) {
+        if (position >= end) {
+            return -1;
+        }
+        int b = bytes.get(position) & 0xFF;
+        if (b == '\n' || b == '\r' && (position + 1 == end || bytes.get(position + 1) == '\n')) {
+            return -1;
+        }
+        return b;
+    }
+
+    // Copies a body's raw bytes, so rewriting a snapshot never has to decode it.
+    void copyBody(int offset, int length, OutputStream out) throws IOException {
+        byte[] body = new byte[length];
+        bytes.get(offset, body);
+        out.write(body);
+    }
+}
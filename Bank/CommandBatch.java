@@ -0,0 +1,168 @@
+import java.io.*;
+import java.util.OptionalLong;
+
+// Replays a command file through the Bank API, one command per line:
+//
+//   open,<name>,<address>,<savings|current>,<amount>
+//   deposit,<account>,<amount>
+//   withdraw,<account>,<amount>
+//   transfer,<from account>,<to account>,<amount>
+//   balance,<account>
+//
+// Amounts are in currency units with up to two decimals, e.g. 120 or 120.50.
+// Blank lines and lines starting with '#' are skipped. Fields are split on
+// commas without quoting, so names and addresses cannot contain commas.
+//
+// BankServer uses the same commands as its wire protocol, one CommandBatch
+// per connection, answering each line with reply().
+class CommandBatch {
+    private static final String[] COMMANDS = { "open", "deposit", "withdraw", "transfer", "balance" };
+    private static final int MAX_FIELDS = 5;
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    private final Bank bank;
+    private final String[] fields = new String[MAX_FIELDS];
+    private final long[] commandCounts = new long[COMMANDS.length];
+    private final long[] statusCounts = new long[Bank.Status.values().length];
+    private long malformed;
+
+    CommandBatch(Bank bank) {
+        this.bank = bank;
+    }
+
+    // Runs every command in the file and returns a printable summary.
+    String run(String filename) throws IOException {
+        long start = System.nanoTime();
+        long lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                try {
+                    execute(line);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    if (malformed++ < MAX_REPORTED_ERRORS) {
+                        System.err.println(filename + ":" + lineNumber + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return summary(filename, System.nanoTime() - start);
+    }
+
+    // The reply to one command line: the outcome's status name, followed by
+    // the account number for open and the balance for balance, or "ERROR
+    // <reason>" for a malformed line.
+    String reply(String line) {
+        try {
+            return execute(line);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            malformed++;
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    private String execute(String line) {
+        int count = split(line);
+        String command = fields[0].trim();
+        Bank.Status status;
+        String result = null;
+        int kind;
+        switch (command) {
+            case "open":
+                expect(count, 5, line);
+                int accountNumber = bank.openAccount(fields[1].trim(), fields[2].trim(), fields[3].trim(),
+                        amount(fields[4]));
+                status = Bank.Status.OK;
+                result = Integer.toString(accountNumber);
+                kind = 0;
+                break;
+            case "deposit":
+                expect(count, 3, line);
+                status = bank.deposit(number(fields[1]), amount(fields[2]));
+                kind = 1;
+                break;
+            case "withdraw":
+                expect(count, 3, line);
+                status = bank.withdraw(number(fields[1]), amount(fields[2]));
+                kind = 2;
+                break;
+            case "transfer":
+                expect(count, 4, line);
+                status = bank.transfer(number(fields[1]), number(fields[2]), amount(fields[3]));
+                kind = 3;
+                break;
+            case "balance":
+                expect(count, 2, line);
+                OptionalLong balance = bank.getBalance(number(fields[1]));
+                status = balance.isPresent() ? Bank.Status.OK : Bank.Status.ACCOUNT_NOT_FOUND;
+                if (balance.isPresent()) {
+                    result = Money.format(balance.getAsLong());
+                }
+                kind = 4;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+        commandCounts[kind]++;
+        statusCounts[status.ordinal()]++;
+        return result == null ? status.name() : status.name() + " " + result;
+    }
+
+    // Splits on commas into the reusable fields array; returns the field count.
+    private int split(String line) {
+        int count = 0;
+        int start = 0;
+        while (count < MAX_FIELDS - 1) {
+            int comma = line.indexOf(',', start);
+            if (comma < 0) {
+                break;
+            }
+            fields[count++] = line.substring(start, comma);
+            start = comma + 1;
+        }
+        fields[count++] = line.substring(start);
+        return count;
+    }
+
+    private static void expect(int count, int expected, String line) {
+        if (count != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " fields: " + line);
+        }
+    }
+
+    private static int number(String field) {
+        try {
+            return Integer.parseInt(field.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + field);
+        }
+    }
+
+    private static long amount(String field) {
+        return Money.parse(field);
+    }
+
+    private String summary(String filename, long elapsedNanos) {
+        long total = 0;
+        for (long count : commandCounts) {
+            total += count;
+        }
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Batch %s: %d commands in %.1f ms (%.0f ops/s)%n", filename, total,
+                elapsedNanos / 1_000_000.0, elapsedNanos == 0 ? 0 : total * 1_000_000_000.0 / elapsedNanos));
+        for (int i = 0; i < COMMANDS.length; i++) {
+            out.append(i == 0 ? "  " : ", ").append(COMMANDS[i]).append(": ").append(commandCounts[i]);
+        }
+        out.append(System.lineSeparator());
+        for (Bank.Status status : Bank.Status.values()) {
+            out.append(status.ordinal() == 0 ? "  " : ", ").append(status).append(": ")
+                    .append(statusCounts[status.ordinal()]);
+        }
+        out.append(", malformed: ").append(malformed);
+        return out.toString();
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.stream.IntStream;
+
+// Accounts and money per account type at one instant, summed in parallel
+// from a balance snapshot and reconciled against the running total the bank
+// keeps alongside every balance change.
+class Holdings {
+    private static final int TYPES = 2;
+
+    final int accounts;
+    final long total;
+    // What the bank's running total said at the same instant.
+    final long expectedTotal;
+    private final long[] countByType;
+    private final long[] totalByType;
+
+    private Holdings(int accounts, long[] sums, long expectedTotal) {
+        this.accounts = accounts;
+        this.countByType = new long[TYPES];
+        this.totalByType = new long[TYPES];
+        long sum = 0;
+        for (int t = 0; t < TYPES; t++) {
+            countByType[t] = sums[t];
+            totalByType[t] = sums[TYPES + t];
+            sum += totalByType[t];
+        }
+        this.total = sum;
+        this.expectedTotal = expectedTotal;
+    }
+
+    // One fork-join task per page of the snapshot.
+    static Holdings of(AccountTable.Snapshot snapshot, long expectedTotal) {
+        int pageSize = snapshot.pageSize();
+        long[] sums = IntStream.range(0, snapshot.pageCount()).parallel().mapToObj(page -> {
+            long[] partial = new long[2 * TYPES];
+            int end = Math.min(snapshot.size(), (page + 1) * pageSize);
+            for (int row = page * pageSize; row < end; row++) {
+                byte type = snapshot.type(row);
+                partial[type]++;
+                partial[TYPES + type] += snapshot.balance(row);
+            }
+            return partial;
+        }).reduce(new long[2 * TYPES], (a, b) -> {
+            long[] sum = new long[2 * TYPES];
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] = a[i] + b[i];
+            }
+            return sum;
+        });
+        return new Holdings(snapshot.size(), sums, expectedTotal);
+    }
+
+    // Straight from a mapped store's fixed-width columns, without loading any
+    // account. The caller must shut out every writer while this runs.
+    static Holdings of(MappedAccountStore store, long expectedTotal) {
+        long[] sums = new long[2 * TYPES];
+        int size = store.size();
+        for (int slot = 0; slot < size; slot++) {
+            byte type = store.typeAt(slot);
+            sums[type]++;
+            sums[TYPES + type] += store.balanceAt(slot);
+        }
+        return new Holdings(size, sums, expectedTotal);
+    }
+
+    long count(String accountType) {
+        return countByType[MappedAccountStore.typeCode(accountType)];
+    }
+
+    long total(String accountType) {
+        return totalByType[MappedAccountStore.typeCode(accountType)];
+    }
+
+    boolean reconciled() {
+        return total == expectedTotal;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (byte t = 0; t < TYPES; t++) {
+            out.append(String.format("%-8s %10d accounts %20s%n", MappedAccountStore.typeName(t), countByType[t],
+                    Money.format(totalByType[t])));
+        }
+        out.append(String.format("%-8s %10d accounts %20s%n", "total", accounts, Money.format(total)));
+        out.append(reconciled() ? "Reconciled with the running total."
+                : "MISMATCH: running total is " + Money.format(expectedTotal) + ", off by "
+                        + Money.format(total - expectedTotal) + ".");
+        return out.toString();
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+// Open-addressing hash map for int-to-int mappings such as account number to
+// row or record slot, with linear probing over a power-of-two table.
+// Values must be non-negative; -1 means absent.
+class IntIntMap {
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public IntIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int get(int key) {
+        int i = slot(key, mask);
+        while (values[i] != -1) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void put(int key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+        int i = slot(key, mask);
+        while (values[i] != -1) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    // Later entries of the probe run are shifted back into the hole, so
+    // lookups that passed over the removed key still find them.
+    public void remove(int key) {
+        int i = slot(key, mask);
+        while (values[i] != -1) {
+            if (keys[i] == key) {
+                int hole = i;
+                for (int j = (i + 1) & mask; values[j] != -1; j = (j + 1) & mask) {
+                    // The entry at j may move to the hole only if the hole is between its home slot and j.
+                    if (((j - slot(keys[j], mask)) & mask) >= ((j - hole) & mask)) {
+                        keys[hole] = keys[j];
+                        values[hole] = values[j];
+                        hole = j;
+                    }
+                }
+                values[hole] = -1;
+                size--;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Every entry as key, value, key, value ..., in no particular order.
+    public int[] toPairs() {
+        int[] pairs = new int[size * 2];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != -1) {
+                pairs[n++] = keys[i];
+                pairs[n++] = values[i];
+            }
+        }
+        return pairs;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != -1) {
+                int j = slot(oldKeys[i], mask);
+                while (values[j] != -1) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
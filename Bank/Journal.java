@@ -0,0 +1,481 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// Append-only binary journal of account events. Every record carries a log
+// sequence number (LSN) so replay can skip whatever a snapshot already covers.
+//
+// Record layout: length(int) | crc32(int) | lsn(long) | type(byte) | payload
+// where length counts everything after the crc. A short or corrupt record at
+// the tail is treated as a torn write and cut off on open.
+//
+// Compaction cuts the journal with rotate(): the records so far move to a
+// closed segment (accounts.journal.1, .2, ...) and appends carry on in a fresh
+// file. Once a snapshot covering the cut is on disk, dropRotated() deletes the
+// segments. Replay reads any segments still there, oldest first, then the file.
+//
+// Appending takes no lock: a writer draws the next LSN from a counter, encodes
+// and checksums the record in a buffer of its own thread, and hands the bytes
+// to a lock-free queue. Only the sequencer - sync(), on the syncer thread or
+// a caller that needs durability - holds the monitor, to move queued records
+// into the file and force it. Records of one account are queued in LSN order,
+// since the caller holds the account's stripe from LSN to enqueue; records of
+// different accounts may interleave, which replay does not mind.
+class Journal implements Closeable {
+    static final byte OPEN = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte TRANSFER = 4;
+    static final byte INTEREST = 5;
+
+    private static final int MAGIC = 0x424A4E4C; // "BJNL"
+    // Version 2 stores amounts in minor units; version 1 stored whole units.
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+
+    // Group commit: fsync once per batch of records or once per interval, whichever comes first.
+    private static final int SYNC_BATCH = 64;
+    private static final long SYNC_INTERVAL_MS = 50;
+    private static final int READ_CHUNK = 1 << 20;
+
+    interface Replayer {
+        void open(long lsn, String name, String address, String accountType, int accountNumber, long balance);
+
+        void deposit(long lsn, int accountNumber, long amount);
+
+        void withdraw(long lsn, int accountNumber, long amount);
+
+        void transfer(long lsn, int fromAccount, int toAccount, long amount);
+
+        // Interest for `period` credited to every savings account as of this LSN.
+        void interest(long lsn, int period, int basisPoints);
+    }
+
+    private final File file;
+    private FileChannel channel;
+    // Replay's checksum; appends use their thread's Encoder.
+    private final CRC32 crc = new CRC32();
+    private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+    // Encoded records, length and checksum included, waiting for the sequencer.
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService syncer;
+    private final Thread exitSync = new Thread(this::syncQuietly, "journal-exit-sync");
+
+    // Guarded by the monitor, like the channel.
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private final AtomicLong lastLsn = new AtomicLong();
+    // Records queued since the sequencer last took them.
+    private final AtomicInteger unsynced = new AtomicInteger();
+    private final LongAdder appendedSinceRotate = new LongAdder();
+    // Closed segments up to this number are covered by the cut rotate() made.
+    private int rotatedUpTo;
+    private int fileVersion = VERSION;
+    // Times each write-and-force in sync(); null records nothing.
+    private volatile LatencyHistogram syncLatency;
+
+    public Journal(String filename) throws IOException {
+        file = new File(filename);
+        openFile();
+        syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(exitSync);
+    }
+
+    private void openFile() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            writeHeader();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+        channel.position(HEADER_SIZE);
+        channel.force(false);
+        fileVersion = VERSION;
+    }
+
+    // Replays every intact record with an LSN above afterLsn, from the closed
+    // segments and then the file, and positions the journal for appending.
+    // Returns the number of records applied.
+    public synchronized int replay(long afterLsn, Replayer replayer) throws IOException {
+        lastLsn.set(afterLsn);
+        appendedSinceRotate.reset();
+        int applied = 0;
+        for (File segment : segments()) {
+            try (FileChannel in = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                applied += replay(in, segment, afterLsn, replayer);
+            }
+        }
+        applied += replay(channel, file, afterLsn, replayer);
+        return applied;
+    }
+
+    private int replay(FileChannel in, File from, long afterLsn, Replayer replayer) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        in.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a journal file: " + from);
+        }
+        int version = header.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported journal version " + version + ": " + from);
+        }
+        if (in == channel) {
+            fileVersion = version;
+        }
+        long scale = version == 1 ? Money.MINOR_PER_MAJOR : 1;
+        int applied = 0;
+        long position = HEADER_SIZE;
+        long size = in.size();
+        ChunkReader reader = new ChunkReader(in, from);
+        while (position + 8 <= size) {
+            ByteBuffer record = reader.at(position, 8);
+            int length = record.getInt();
+            int checksum = record.getInt();
+            if (length <= 0 || position + 8 + length > size) {
+                break;
+            }
+            record = reader.at(position + 8, length);
+            int body = record.position();
+            crc.reset();
+            record.limit(body + length);
+            crc.update(record);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            record.position(body);
+            long lsn = record.getLong();
+            if (lsn > afterLsn) {
+                apply(lsn, record.get(), record, body + length, scale, replayer);
+                applied++;
+            }
+            advanceLsn(lsn);
+            appendedSinceRotate.increment();
+            position += 8 + length;
+        }
+        if (position < size) {
+            if (in != channel) {
+                // A segment was forced before it was closed, so this is damage, not a torn write.
+                throw new IOException("Journal segment " + from + " is corrupt at byte " + position);
+            }
+            System.err.println("Journal: discarding " + (size - position) + " bytes of incomplete records.");
+            channel.truncate(position);
+        }
+        if (in == channel) {
+            channel.position(position);
+        }
+        return applied;
+    }
+
+    // Decodes one record body from `in`, which ends at `end`.
+    private static void apply(long lsn, byte type, ByteBuffer in, int end, long scale, Replayer replayer)
+            throws IOException {
+        switch (type) {
+            case OPEN:
+                int accountNumber = in.getInt();
+                long balance = in.getLong() * scale;
+                byte[] strings = new byte[end - in.position()];
+                in.get(strings);
+                DataInputStream text = new DataInputStream(new ByteArrayInputStream(strings));
+                replayer.open(lsn, text.readUTF(), text.readUTF(), text.readUTF(), accountNumber, balance);
+                break;
+            case DEPOSIT:
+                replayer.deposit(lsn, in.getInt(), in.getLong() * scale);
+                break;
+            case WITHDRAW:
+                replayer.withdraw(lsn, in.getInt(), in.getLong() * scale);
+                break;
+            case TRANSFER:
+                replayer.transfer(lsn, in.getInt(), in.getInt(), in.getLong() * scale);
+                break;
+            case INTEREST:
+                replayer.interest(lsn, in.getInt(), in.getInt());
+                break;
+            default:
+                throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+
+    // Reads the file a large chunk at a time for replay, instead of two small
+    // reads per record.
+    private static final class ChunkReader {
+        private final FileChannel channel;
+        private final File file;
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+        // The buffer holds file bytes [start, start + filled).
+        private long start;
+        private int filled;
+
+        ChunkReader(FileChannel channel, File file) {
+            this.channel = channel;
+            this.file = file;
+        }
+
+        // The buffer, positioned at file offset `position` and holding at
+        // least `length` bytes from there. The caller has checked the file
+        // is long enough.
+        ByteBuffer at(long position, int length) throws IOException {
+            if (position < start || position + length > start + filled) {
+                if (buffer.capacity() < length) {
+                    buffer = ByteBuffer.allocate(length);
+                }
+                buffer.clear();
+                start = position;
+                while (buffer.position() < length) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        throw new EOFException("Journal ended early: " + file);
+                    }
+                }
+                filled = buffer.position();
+            }
+            buffer.limit(filled);
+            buffer.position((int) (position - start));
+            return buffer;
+        }
+    }
+
+    public long logOpen(BankAccount account) throws IOException {
+        Encoder encoder = encoders.get();
+        DataOutputStream record = encoder.begin(lastLsn.incrementAndGet(), OPEN);
+        record.writeInt(account.accountNumber);
+        record.writeLong(account.balance);
+        record.writeUTF(account.name());
+        record.writeUTF(account.address());
+        record.writeUTF(account.accountType);
+        return commit(encoder);
+    }
+
+    public long logDeposit(int accountNumber, long amount) throws IOException {
+        Encoder encoder = encoders.get();
+        DataOutputStream record = encoder.begin(lastLsn.incrementAndGet(), DEPOSIT);
+        record.writeInt(accountNumber);
+        record.writeLong(amount);
+        return commit(encoder);
+    }
+
+    public long logWithdraw(int accountNumber, long amount) throws IOException {
+        Encoder encoder = encoders.get();
+        DataOutputStream record = encoder.begin(lastLsn.incrementAndGet(), WITHDRAW);
+        record.writeInt(accountNumber);
+        record.writeLong(amount);
+        return commit(encoder);
+    }
+
+    public long logTransfer(int fromAccount, int toAccount, long amount) throws IOException {
+        Encoder encoder = encoders.get();
+        DataOutputStream record = encoder.begin(lastLsn.incrementAndGet(), TRANSFER);
+        record.writeInt(fromAccount);
+        record.writeInt(toAccount);
+        record.writeLong(amount);
+        return commit(encoder);
+    }
+
+    public long logInterest(int period, int basisPoints) throws IOException {
+        Encoder encoder = encoders.get();
+        DataOutputStream record = encoder.begin(lastLsn.incrementAndGet(), INTEREST);
+        record.writeInt(period);
+        record.writeInt(basisPoints);
+        return commit(encoder);
+    }
+
+    private long commit(Encoder encoder) {
+        pending.add(encoder.finish());
+        appendedSinceRotate.increment();
+        if (unsynced.incrementAndGet() == SYNC_BATCH) {
+            // A full batch: have the syncer force it now instead of at its next
+            // tick. The caller holds a stripe lock and must not wait for the disk.
+            try {
+                syncer.execute(this::syncQuietly);
+            } catch (RejectedExecutionException e) {
+                // Closing; close() syncs whatever is queued.
+            }
+        }
+        return encoder.lsn;
+    }
+
+    // One thread's record under construction.
+    private static final class Encoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final CRC32 crc = new CRC32();
+        private long lsn;
+
+        DataOutputStream begin(long lsn, byte type) throws IOException {
+            this.lsn = lsn;
+            bytes.reset();
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(lsn);
+            out.writeByte(type);
+            return out;
+        }
+
+        // The framed record: the length and checksum are filled in over the placeholders.
+        byte[] finish() {
+            byte[] framed = bytes.toByteArray();
+            crc.reset();
+            crc.update(framed, 8, framed.length - 8);
+            ByteBuffer.wrap(framed).putInt(framed.length - 8).putInt((int) crc.getValue());
+            return framed;
+        }
+    }
+
+    // Moves queued records into the file, in queue order. Returns how many.
+    private int drain() throws IOException {
+        int drained = 0;
+        for (byte[] framed = pending.poll(); framed != null; framed = pending.poll()) {
+            if (writeBuffer.remaining() < framed.length) {
+                flushBuffer();
+                if (writeBuffer.capacity() < framed.length) {
+                    writeBuffer = ByteBuffer.allocate(framed.length);
+                }
+            }
+            writeBuffer.put(framed);
+            drained++;
+        }
+        flushBuffer();
+        return drained;
+    }
+
+    private void flushBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    // Writes out queued records and forces them to disk: every record whose
+    // log call returned before this call is durable when it returns.
+    public synchronized void sync() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        unsynced.addAndGet(-drain());
+        channel.force(false);
+        LatencyHistogram latency = syncLatency;
+        if (latency != null) {
+            latency.recordSince(start);
+        }
+    }
+
+    public void setSyncLatency(LatencyHistogram syncLatency) {
+        this.syncLatency = syncLatency;
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Journal sync failed: " + e.getMessage());
+        }
+    }
+
+    // True after replaying a file in an older format. New records must not be
+    // appended to it; compact first, which starts a fresh file in the current format.
+    public synchronized boolean isLegacyFormat() {
+        return fileVersion < VERSION;
+    }
+
+    // The last LSN handed out. With writers shut out, also the last one queued.
+    public long lastLsn() {
+        return lastLsn.get();
+    }
+
+    // Makes sure new records get LSNs above `lsn`, e.g. one already stamped into a data file.
+    public void advanceLsn(long lsn) {
+        lastLsn.accumulateAndGet(lsn, Math::max);
+    }
+
+    // Records written or replayed since the last cut, counting closed segments not yet dropped.
+    public long recordsSinceRotate() {
+        return appendedSinceRotate.sum();
+    }
+
+    // Cuts the journal at lastLsn(), which it returns: every record so far is
+    // forced and moved to a new closed segment, and appends continue in a fresh
+    // file in the current format. The caller shuts out every writer, so the
+    // cut matches the state it snapshots.
+    public synchronized long rotate() throws IOException {
+        unsynced.addAndGet(-drain());
+        channel.force(false);
+        List<File> closed = segments();
+        int number = closed.isEmpty() ? 1 : segmentNumber(closed.get(closed.size() - 1)) + 1;
+        Files.move(file.toPath(), segment(number).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        openFile();
+        rotatedUpTo = number;
+        appendedSinceRotate.reset();
+        return lastLsn.get();
+    }
+
+    // Deletes the segments up to the last cut. Only safe once a snapshot
+    // covering the LSN rotate() returned is durable.
+    public synchronized void dropRotated() throws IOException {
+        for (File segment : segments()) {
+            if (segmentNumber(segment) <= rotatedUpTo) {
+                Files.delete(segment.toPath());
+            }
+        }
+    }
+
+    private File segment(int number) {
+        return new File(file.getPath() + "." + number);
+    }
+
+    private int segmentNumber(File segment) {
+        return Integer.parseInt(segment.getName().substring(file.getName().length() + 1));
+    }
+
+    // The closed segments on disk, oldest first.
+    private List<File> segments() {
+        File directory = file.getAbsoluteFile().getParentFile();
+        String prefix = file.getName() + ".";
+        List<File> found = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File candidate : files) {
+                String name = candidate.getName();
+                if (name.startsWith(prefix) && name.length() > prefix.length()
+                        && name.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+                    found.add(candidate);
+                }
+            }
+        }
+        found.sort((a, b) -> Integer.compare(segmentNumber(a), segmentNumber(b)));
+        return found;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        syncer.shutdown();
+        Runtime.getRuntime().removeShutdownHook(exitSync);
+        sync();
+        channel.close();
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear latency histogram in the style of HdrHistogram: every power of
+// two of nanoseconds is split into SUB_COUNT equal buckets, so any recorded
+// value is reported within 1/SUB_COUNT (about 3%) of itself, from 1 ns up to
+// about 39 hours. Recording is a few array increments: no allocation, no lock.
+//
+// Counts are kept in STRIPES copies chosen by thread, so threads recording the
+// same latency do not fight over one cache line. Reads sum the stripes and
+// are not atomic with respect to concurrent recording.
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_SHIFT = 41;
+    private static final int BUCKETS = (MAX_SHIFT + 2) * SUB_COUNT;
+    private static final int STRIPES = 8;
+    // Per stripe: BUCKETS counts, then the sum and the max, in nanoseconds.
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    private static final int STRIPE_SIZE = BUCKETS + 2;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIPE_SIZE);
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_COUNT) {
+            return (int) Math.max(nanos, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        return (shift + 1) * SUB_COUNT + (int) (nanos >>> shift) - SUB_COUNT;
+    }
+
+    // Largest value that falls in the bucket.
+    static long highestIn(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long sub = SUB_COUNT + bucket % SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    void record(long nanos) {
+        int base = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SIZE;
+        cells.incrementAndGet(base + bucketOf(nanos));
+        cells.addAndGet(base + SUM, nanos);
+        long max = cells.get(base + MAX);
+        while (nanos > max && !cells.compareAndSet(base + MAX, max, nanos)) {
+            max = cells.get(base + MAX);
+        }
+    }
+
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    // A consistent-enough copy for reporting: counts per bucket plus count, sum and max.
+    Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int base = stripe * STRIPE_SIZE;
+            for (int b = 0; b < BUCKETS; b++) {
+                long c = cells.get(base + b);
+                counts[b] += c;
+                count += c;
+            }
+            sum += cells.get(base + SUM);
+            max = Math.max(max, cells.get(base + MAX));
+        }
+        return new Snapshot(counts, count, sum, max);
+    }
+
+    static class Snapshot {
+        private final long[] counts;
+        final long count;
+        final long sum;
+        final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // The latency at or below which `percentile` percent of values fall.
+        long valueAt(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    return Math.min(highestIn(b), max);
+                }
+            }
+            return max;
+        }
+    }
+}
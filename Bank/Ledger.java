@@ -0,0 +1,512 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Append-only history of every balance change, kept for statements. Unlike
+// the journal it is never truncated.
+//
+// Records are fixed width, so record n lives at HEADER_SIZE + n * RECORD_SIZE
+// and its transaction id is n + 1, which stays unique and increasing across
+// restarts. Each record links back to the account's previous record (and a
+// transfer also to the payee's), so an account's history is a chain through
+// the file. All that is kept in memory is the newest record of each account:
+// one IntIntMap entry per account (16 to 32 bytes), however long the history
+// grows, so the ledger's heap does grow with the number of accounts.
+//
+// Header: magic | version | wholeUnitRecords
+// Record: previous(int) | counterpartyPrevious(int) | lsn(long) | time(long) | amount(long) | account(int) | counterparty(int) | type(byte) | pad(7)
+//
+// Amounts are in minor units, except in the first `wholeUnitRecords` records,
+// which were written by version 1 in whole units and are scaled when read.
+// Versions 1 and 2 kept the transaction id where the links are now; the links
+// are filled in once, on the first open.
+//
+// An interest run is one journal record, so all of its credits share that
+// LSN. They are appended together by appendRun(), each noting in place of
+// counterpartyPrevious how many of the run's records follow it, and open()
+// drops a run a crash cut short. A run is therefore in the ledger whole or
+// not at all, and has() answers for all of its credits at once.
+//
+// checkpoint() saves that index beside the ledger (accounts.ledger.idx), so
+// opening only scans the records appended after it, not the whole file.
+//
+// Appends are buffered and only forced to disk by sync() or checkpoint(). Each
+// record carries the journal LSN it came from, so anything lost in a crash is
+// re-appended when the journal is replayed, and has() tells replay what is
+// already here. Compaction checkpoints the ledger before it drops the journal.
+class Ledger implements Closeable {
+    private static final int MAGIC = 0x424C4447; // "BLDG"
+    private static final int INDEX_MAGIC = 0x424C4958; // "BLIX"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 48;
+    private static final int INDEX_HEADER_SIZE = 24;
+    private static final int SCAN_RECORDS = 4096;
+
+    private static final int PREVIOUS = 0;
+    private static final int COUNTERPARTY_PREVIOUS = 4;
+    // Interest records keep the number of records left in their run here instead.
+    private static final int RUN_REMAINING = 4;
+    private static final int LSN = 8;
+    private static final int TIME = 16;
+    private static final int AMOUNT = 24;
+    private static final int ACCOUNT = 32;
+    private static final int COUNTERPARTY = 36;
+    private static final int TYPE = 40;
+
+    private static final int WHOLE_UNIT_RECORDS = 8;
+
+    private final File file;
+    private final File indexFile;
+    private final FileChannel channel;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+    private int recordCount;
+    private int writtenCount;
+    private long lastTime;
+    private int wholeUnitRecords;
+
+    // Account number to its newest record.
+    private IntIntMap heads = new IntIntMap(16);
+    // Every journal record up to this cut is in the file; see checkpoint().
+    private long indexedLsn;
+    // Until replay is done: the sorted LSNs of the records above that cut
+    // which the journal may hold again. See has().
+    private long[] replayable = new long[0];
+
+    // Journal replay will start after `afterLsn`; records above it are
+    // remembered for has().
+    public Ledger(String filename, long afterLsn) throws IOException {
+        file = new File(filename);
+        indexFile = new File(filename + ".idx");
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).rewind();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(false);
+            Files.deleteIfExists(indexFile.toPath());
+        } else {
+            open(afterLsn);
+        }
+    }
+
+    // Loads the index saved by the last checkpoint, if it fits this file, and
+    // scans the records after it (without one, the whole file). Cuts off a
+    // torn last record and upgrades older versions.
+    private void open(long afterLsn) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        int version = header.getInt(4);
+        if (header.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+            throw new IOException("Not a ledger file: " + file);
+        }
+        wholeUnitRecords = version == 1 ? -1 : header.getInt(WHOLE_UNIT_RECORDS);
+        long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+        if (records > Integer.MAX_VALUE) {
+            throw new IOException("Ledger too large: " + file);
+        }
+        recordCount = (int) records;
+        writtenCount = recordCount;
+        long end = HEADER_SIZE + (long) recordCount * RECORD_SIZE;
+        if (channel.size() > end) {
+            System.err.println("Ledger: discarding " + (channel.size() - end) + " bytes of an incomplete record.");
+            channel.truncate(end);
+        }
+        if (version == VERSION) {
+            dropIncompleteRun();
+        }
+
+        int indexed = 0;
+        if (version == VERSION) {
+            long[] saved = readIndex();
+            if (saved != null) {
+                indexed = (int) saved[0];
+                indexedLsn = saved[1];
+            }
+        }
+        // The journal holds nothing at or below the cut the index was saved at.
+        long replayFrom = Math.max(afterLsn, indexedLsn);
+        LsnList found = new LsnList();
+        scan(indexed, version < VERSION, replayFrom, found);
+        // Records appended between that cut and the checkpoint are indexed, but may be replayed too.
+        scanBack(indexed, replayFrom, found);
+        replayable = found.sorted();
+        if (recordCount > 0) {
+            ByteBuffer last = ByteBuffer.allocate(RECORD_SIZE);
+            readRecord(recordCount - 1, last);
+            lastTime = last.getLong(TIME);
+        }
+
+        if (version < VERSION) {
+            if (wholeUnitRecords < 0) {
+                // Upgrade from version 1: everything so far is in whole units.
+                wholeUnitRecords = recordCount;
+            }
+            // The links go to disk before the header says they are there.
+            channel.force(false);
+            ByteBuffer upgrade = ByteBuffer.allocate(8);
+            upgrade.putInt(VERSION).putInt(wholeUnitRecords).flip();
+            channel.write(upgrade, 4);
+            channel.force(false);
+        }
+    }
+
+    // A last record that still expects more of its run after it was written
+    // before a crash. The run's records are consecutive, so they are the
+    // records at the end with its LSN; all of them go, to be appended again
+    // when the journal replays the run.
+    private void dropIncompleteRun() throws IOException {
+        if (recordCount == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        readRecord(recordCount - 1, buffer);
+        if (buffer.get(TYPE) != Journal.INTEREST || buffer.getInt(RUN_REMAINING) <= 0) {
+            return;
+        }
+        long lsn = buffer.getLong(LSN);
+        int first = recordCount - 1;
+        while (first > 0) {
+            readRecord(first - 1, buffer);
+            if (buffer.getLong(LSN) != lsn) {
+                break;
+            }
+            first--;
+        }
+        System.err.println("Ledger: discarding " + (recordCount - first) + " record(s) of an incomplete interest run.");
+        recordCount = first;
+        writtenCount = first;
+        channel.truncate(HEADER_SIZE + (long) first * RECORD_SIZE);
+    }
+
+    // Index file: magic | records(int) | cutLsn(long) | count(int) | pad(4),
+    // then `count` pairs of accountNumber(int) | newestRecord(int), covering
+    // the first `records` records. Fills `heads` and returns {records,
+    // cutLsn}, or null if there is no usable index.
+    private long[] readIndex() throws IOException {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                return null;
+            }
+            int records = in.readInt();
+            long cutLsn = in.readLong();
+            int count = in.readInt();
+            in.readInt();
+            if (records < 0 || records > recordCount || count < 0
+                    || indexFile.length() != INDEX_HEADER_SIZE + (long) count * 8) {
+                return null;
+            }
+            IntIntMap saved = new IntIntMap(count);
+            for (int i = 0; i < count; i++) {
+                int accountNumber = in.readInt();
+                int record = in.readInt();
+                if (record < 0 || record >= records) {
+                    return null;
+                }
+                saved.put(accountNumber, record);
+            }
+            heads = saved;
+            return new long[] { records, cutLsn };
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // Reads records [from, recordCount) in order, moving heads forward and
+    // noting LSNs above `replayFrom`. With `link`, also writes each record's
+    // links, for files from before there were any.
+    private void scan(int from, boolean link, long replayFrom, LsnList found) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * SCAN_RECORDS);
+        int record = from;
+        while (record < recordCount) {
+            int first = record;
+            int count = Math.min(SCAN_RECORDS, recordCount - record);
+            readRecords(first, count, chunk);
+            for (int offset = 0; offset < count * RECORD_SIZE; offset += RECORD_SIZE, record++) {
+                int accountNumber = chunk.getInt(offset + ACCOUNT);
+                int counterparty = chunk.getInt(offset + COUNTERPARTY);
+                boolean transfer = chunk.get(offset + TYPE) == Journal.TRANSFER;
+                if (link) {
+                    chunk.putInt(offset + PREVIOUS, heads.get(accountNumber));
+                    chunk.putInt(offset + COUNTERPARTY_PREVIOUS, transfer ? heads.get(counterparty) : -1);
+                }
+                heads.put(accountNumber, record);
+                if (transfer) {
+                    heads.put(counterparty, record);
+                }
+                long lsn = chunk.getLong(offset + LSN);
+                if (lsn > replayFrom) {
+                    found.add(lsn);
+                }
+            }
+            if (link) {
+                chunk.rewind();
+                long position = HEADER_SIZE + (long) first * RECORD_SIZE;
+                while (chunk.hasRemaining()) {
+                    position += channel.write(chunk, position);
+                }
+            }
+        }
+    }
+
+    // Walks back from record `before` while LSNs are above `replayFrom`.
+    // Every record at or below a journal cut precedes every record above it,
+    // since compaction shuts out writers while it cuts.
+    private void scanBack(int before, long replayFrom, LsnList found) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * SCAN_RECORDS);
+        int end = before;
+        while (end > 0) {
+            int count = Math.min(SCAN_RECORDS, end);
+            readRecords(end - count, count, chunk);
+            for (int i = count - 1; i >= 0; i--) {
+                long lsn = chunk.getLong(i * RECORD_SIZE + LSN);
+                if (lsn <= replayFrom) {
+                    return;
+                }
+                found.add(lsn);
+            }
+            end -= count;
+        }
+    }
+
+    private void readRecords(int first, int count, ByteBuffer chunk) throws IOException {
+        chunk.clear().limit(count * RECORD_SIZE);
+        long position = HEADER_SIZE + (long) first * RECORD_SIZE;
+        while (chunk.hasRemaining()) {
+            if (channel.read(chunk, position + chunk.position()) < 0) {
+                throw new EOFException("Ledger ended early: " + file);
+            }
+        }
+    }
+
+    // True if a record with this journal LSN was in the ledger when it was
+    // opened, so replaying the journal must not append it again. Only answers
+    // for LSNs above the constructor's `afterLsn`, and only until replayDone().
+    public synchronized boolean has(long lsn) {
+        return lsn <= indexedLsn || Arrays.binarySearch(replayable, lsn) >= 0;
+    }
+
+    public synchronized void replayDone() {
+        replayable = new long[0];
+    }
+
+    // Appends one transaction and returns its id. For transfers `accountNumber`
+    // is the payer and `counterparty` the payee; otherwise counterparty is unused.
+    public synchronized long append(long lsn, byte type, int accountNumber, int counterparty, long amount)
+            throws IOException {
+        if (recordCount == Integer.MAX_VALUE) {
+            throw new IOException("Ledger full: " + file);
+        }
+        boolean transfer = type == Journal.TRANSFER;
+        return put(lsn, type, accountNumber, counterparty, amount, transfer ? heads.get(counterparty) : -1);
+    }
+
+    // Appends every non-zero amount of one run journaled as record `lsn`, as
+    // consecutive records, and forces them, so the run is on disk before the
+    // caller changes any balance. amounts[i] goes to accountNumbers[i].
+    public synchronized void appendRun(long lsn, byte type, int[] accountNumbers, long[] amounts)
+            throws IOException {
+        int remaining = 0;
+        for (long amount : amounts) {
+            if (amount != 0) {
+                remaining++;
+            }
+        }
+        if (remaining > Integer.MAX_VALUE - recordCount) {
+            throw new IOException("Ledger full: " + file);
+        }
+        for (int i = 0; i < amounts.length; i++) {
+            if (amounts[i] != 0) {
+                put(lsn, type, accountNumbers[i], 0, amounts[i], --remaining);
+            }
+        }
+        sync();
+    }
+
+    // Buffers one record. `counterpartyPrevious` is the payee's previous
+    // record for a transfer, the records left in the run for interest, and
+    // otherwise -1.
+    private long put(long lsn, byte type, int accountNumber, int counterparty, long amount,
+            int counterpartyPrevious)
+            throws IOException {
+        if (!writeBuffer.hasRemaining()) {
+            drain();
+        }
+        boolean transfer = type == Journal.TRANSFER;
+        int record = recordCount;
+        lastTime = Math.max(lastTime, System.currentTimeMillis());
+        int offset = writeBuffer.position();
+        writeBuffer.putInt(offset + PREVIOUS, heads.get(accountNumber))
+                .putInt(offset + COUNTERPARTY_PREVIOUS, counterpartyPrevious)
+                .putLong(offset + LSN, lsn)
+                .putLong(offset + TIME, lastTime)
+                .putLong(offset + AMOUNT, amount)
+                .putInt(offset + ACCOUNT, accountNumber)
+                .putInt(offset + COUNTERPARTY, counterparty)
+                .put(offset + TYPE, type)
+                .position(offset + RECORD_SIZE);
+        heads.put(accountNumber, record);
+        if (transfer) {
+            heads.put(counterparty, record);
+        }
+        recordCount++;
+        return record + 1L;
+    }
+
+    private void drain() throws IOException {
+        writeBuffer.flip();
+        long position = HEADER_SIZE + (long) writtenCount * RECORD_SIZE;
+        while (writeBuffer.hasRemaining()) {
+            position += channel.write(writeBuffer, position);
+        }
+        writeBuffer.clear();
+        writtenCount = recordCount;
+    }
+
+    public synchronized void sync() throws IOException {
+        drain();
+        channel.force(false);
+    }
+
+    // Forces every record and saves the index as it is now, so the next open
+    // only scans what is appended after this. `cutLsn` is the journal cut of
+    // the calling compaction: nothing at or below it will be replayed again.
+    // Appends only wait while the index is copied.
+    public void checkpoint(long cutLsn) throws IOException {
+        int records;
+        int[] pairs;
+        synchronized (this) {
+            drain();
+            channel.force(false);
+            records = recordCount;
+            pairs = heads.toPairs();
+        }
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (FileOutputStream target = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, 1 << 16))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(records);
+            out.writeLong(cutLsn);
+            out.writeInt(pairs.length / 2);
+            out.writeInt(0);
+            for (int pair : pairs) {
+                out.writeInt(pair);
+            }
+            out.flush();
+            target.getFD().sync();
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The account's newest record, or -1. Pending appends are written out
+    // first, so the chain can then be read from the file without holding this
+    // monitor: a record never changes once written.
+    private synchronized int headOf(int accountNumber) throws IOException {
+        if (writtenCount < recordCount) {
+            drain();
+        }
+        return heads.get(accountNumber);
+    }
+
+    // The account's last n transactions, newest first.
+    public List<BankAccount.Transaction> latest(int accountNumber, int n) throws IOException {
+        List<BankAccount.Transaction> result = new ArrayList<>(Math.max(0, Math.min(n, 64)));
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        for (int record = headOf(accountNumber); record >= 0 && result.size() < n;
+                record = previous(buffer, accountNumber)) {
+            result.add(read(record, buffer));
+        }
+        return result;
+    }
+
+    // Streams the account's transactions with fromMillis <= time < toMillis,
+    // oldest first. The chain is walked back from the newest record, so this
+    // costs one record read per transaction since fromMillis, and holds the
+    // numbers of the records in range until they are streamed.
+    public void forEach(int accountNumber, long fromMillis, long toMillis, Consumer<BankAccount.Transaction> action)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        int[] inRange = new int[16];
+        int count = 0;
+        for (int record = headOf(accountNumber); record >= 0; record = previous(buffer, accountNumber)) {
+            readRecord(record, buffer);
+            long time = buffer.getLong(TIME);
+            if (time < fromMillis) {
+                break;
+            }
+            if (time < toMillis) {
+                if (count == inRange.length) {
+                    inRange = Arrays.copyOf(inRange, count * 2);
+                }
+                inRange[count++] = record;
+            }
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            action.accept(read(inRange[i], buffer));
+        }
+    }
+
+    // The account's record before the one in `buffer`, or -1.
+    private static int previous(ByteBuffer buffer, int accountNumber) {
+        return buffer.getInt(ACCOUNT) == accountNumber ? buffer.getInt(PREVIOUS)
+                : buffer.getInt(COUNTERPARTY_PREVIOUS);
+    }
+
+    private void readRecord(int record, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        long position = HEADER_SIZE + (long) record * RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Ledger record " + record + " is missing");
+            }
+        }
+    }
+
+    private BankAccount.Transaction read(int record, ByteBuffer buffer) throws IOException {
+        readRecord(record, buffer);
+        long amount = buffer.getLong(AMOUNT);
+        if (record < wholeUnitRecords) {
+            amount *= Money.MINOR_PER_MAJOR;
+        }
+        return new BankAccount.Transaction(record + 1L, buffer.getLong(TIME), buffer.get(TYPE),
+                buffer.getInt(ACCOUNT), buffer.getInt(COUNTERPARTY), amount);
+    }
+
+    // A growing list of LSNs, sorted once complete.
+    private static final class LsnList {
+        private long[] lsns = new long[16];
+        private int size;
+
+        void add(long lsn) {
+            if (size == lsns.length) {
+                lsns = Arrays.copyOf(lsns, size * 2);
+            }
+            lsns[size++] = lsn;
+        }
+
+        long[] sorted() {
+            long[] result = Arrays.copyOf(lsns, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        channel.close();
+    }
+}
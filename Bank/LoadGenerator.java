@@ -0,0 +1,135 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives a local BankServer the way many tellers would: each connection
+// opens two accounts, then keeps `window` requests in flight against them
+// (half transfers, the rest deposits, withdrawals and balance queries)
+// until the time is up. Latency is from writing a request to reading its
+// reply, so it includes any wait behind earlier requests in the window.
+class LoadGenerator {
+    private final int port;
+    private final int connections;
+    private final int window;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+
+    LoadGenerator(int port, int connections, int window) {
+        if (connections < 1 || window < 1) {
+            throw new IllegalArgumentException("Connections and window must be at least 1.");
+        }
+        this.port = port;
+        this.connections = connections;
+        this.window = window;
+    }
+
+    // Runs for `seconds` and returns a printable summary.
+    String run(int seconds) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        ExecutorService clients = BankServer.threadPerTaskExecutor();
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            running.add(clients.submit(() -> {
+                drive(deadline);
+                return null;
+            }));
+        }
+        int failed = 0;
+        String firstFailure = null;
+        for (Future<?> f : running) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (failed++ == 0) {
+                    firstFailure = e.getCause().toString();
+                }
+            }
+        }
+        clients.shutdown();
+        long elapsed = System.nanoTime() - start;
+        LatencyHistogram.Snapshot s = latency.snapshot();
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%d connections, window %d: %d requests in %.1f s (%.0f ops/s), %d rejected%n",
+                connections, window, s.count, elapsed / 1e9, s.count * 1e9 / elapsed, rejected.sum()));
+        out.append(String.format("latency us: mean %.1f, p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f", s.mean() / 1000,
+                s.valueAt(50) / 1000.0, s.valueAt(99) / 1000.0, s.valueAt(99.9) / 1000.0, s.max / 1000.0));
+        if (failed > 0) {
+            out.append(String.format("%n%d connections failed, first: %s", failed, firstFailure));
+        }
+        return out.toString();
+    }
+
+    private void drive(long deadline) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            int a = openAccount(in, out);
+            int b = openAccount(in, out);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            // Send times of the requests in flight, oldest at sent[done % window].
+            long[] sent = new long[window];
+            long issued = 0;
+            long done = 0;
+            while (true) {
+                boolean more = System.nanoTime() < deadline;
+                while (more && issued - done < window) {
+                    out.write(request(random, a, b));
+                    out.write('\n');
+                    sent[(int) (issued++ % window)] = System.nanoTime();
+                }
+                out.flush();
+                if (done == issued) {
+                    break;
+                }
+                do {
+                    String reply = in.readLine();
+                    if (reply == null) {
+                        throw new EOFException("Server closed the connection");
+                    }
+                    latency.recordSince(sent[(int) (done++ % window)]);
+                    if (!reply.startsWith("OK")) {
+                        rejected.increment();
+                    }
+                } while (done < issued && in.ready());
+            }
+            out.write("quit\n");
+        }
+    }
+
+    private static String request(ThreadLocalRandom random, int a, int b) {
+        int kind = random.nextInt(10);
+        boolean forward = random.nextBoolean();
+        int from = forward ? a : b;
+        int to = forward ? b : a;
+        if (kind < 5) {
+            return "transfer," + from + "," + to + ",1";
+        } else if (kind < 7) {
+            return "deposit," + from + ",1";
+        } else if (kind < 9) {
+            return "withdraw," + from + ",1";
+        }
+        return "balance," + from;
+    }
+
+    private static int openAccount(BufferedReader in, Writer out) throws IOException {
+        out.write("open,Load Generator,Localhost,current,1000000\n");
+        out.flush();
+        String reply = in.readLine();
+        if (reply == null || !reply.startsWith("OK ")) {
+            throw new IOException("Could not open an account: " + reply);
+        }
+        return Integer.parseInt(reply.substring(3));
+    }
+}
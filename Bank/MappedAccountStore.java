@@ -0,0 +1,506 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// Fixed-width binary account file, accessed through a memory mapping.
+//
+// Layout: a 64 byte header, then `capacity` 32 byte records, then a string
+// heap holding name and address. Records can be read (and balances updated)
+// in place without touching the heap, so opening the store only has to scan
+// the account number column.
+//
+// That scan builds the one structure here that grows with the book: the
+// index from account number to slot, on the Java heap at 16 to 32 bytes per
+// account (two int arrays, kept between a quarter and half full). Balances
+// and strings stay in the file.
+//
+// Header: magic | version | count | capacity | heapEnd(long) | checkpointLsn(long) | interestPeriod
+// Record: accountNumber(int) | type(byte) | pad(3) | balance(long) | lsn(long) | heapOffset(long)
+//
+// Every record carries the LSN of the last journal record applied to it, so
+// replaying the journal over a store that was flushed part-way is idempotent.
+//
+// Reading and updating a record's balance are plain puts and gets at a fixed
+// offset of the mapping, guarded by the caller's lock stripe for that
+// account, so they take no monitor here. The monitor serializes appends,
+// which write the heap and the slot index, and growing, which replaces the
+// mapping: the caller must shut out every balance writer before the record
+// region can grow (see isFull()). Slot lookups read the index without the
+// monitor.
+class MappedAccountStore implements Closeable {
+    private static final int MAGIC = 0x42444154; // "BDAT"
+    // Version 2 stores balances in minor units; version 1 files are upgraded on open.
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+
+    private static final int COUNT = 8;
+    private static final int CAPACITY = 12;
+    private static final int HEAP_END = 16;
+    private static final int CHECKPOINT_LSN = 24;
+    private static final int INTEREST_PERIOD = 32;
+
+    private static final int NUMBER = 0;
+    private static final int TYPE = 4;
+    private static final int BALANCE = 8;
+    private static final int LSN = 16;
+    private static final int HEAP_OFFSET = 24;
+
+    static final byte SAVINGS = 0;
+    static final byte CURRENT = 1;
+
+    private final File file;
+    private FileChannel channel;
+    private volatile MappedByteBuffer map;
+    private volatile int count;
+    private int capacity;
+    private long heapEnd;
+    private final SlotIndex slots;
+
+    private MappedAccountStore(File file) throws IOException {
+        this.file = file;
+        mapFile();
+        int version = map.getInt(4);
+        if (map.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+            channel.close();
+            throw new IOException("Not an account store: " + file);
+        }
+        if (version == 1) {
+            channel.close();
+            upgrade(file);
+            mapFile();
+        }
+        count = map.getInt(COUNT);
+        heapEnd = map.getLong(HEAP_END);
+        slots = new SlotIndex(count);
+        for (int slot = 0; slot < count; slot++) {
+            slots.put(map.getInt(recordAt(slot) + NUMBER), slot);
+        }
+    }
+
+    // Version 1 held whole-unit balances. The upgrade scales them on a copy and
+    // renames it into place, so an interrupted upgrade can never scale twice.
+    private static void upgrade(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel copy = FileChannel.open(temp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            copy.read(header, 0);
+            int count = header.getInt(COUNT);
+            MappedByteBuffer records = copy.map(FileChannel.MapMode.READ_WRITE, 0, recordAt(count));
+            for (int slot = 0; slot < count; slot++) {
+                int balance = recordAt(slot) + BALANCE;
+                records.putLong(balance, Math.multiplyExact(records.getLong(balance), (long) Money.MINOR_PER_MAJOR));
+            }
+            records.putInt(4, VERSION);
+            records.force();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static MappedAccountStore open(String filename) throws IOException {
+        return new MappedAccountStore(new File(filename));
+    }
+
+    // One-shot conversion target: writes the given accounts as a fresh store.
+    // Records and strings are streamed into their regions in one pass; the
+    // unused record slots between them are left as a hole, which reads as zeros.
+    public static void create(String filename, List<BankAccount> accounts, long checkpointLsn, int interestPeriod)
+            throws IOException {
+        int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, accounts.size())) << 1);
+        long heapStart = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        if (capacity <= 0 || heapStart > Integer.MAX_VALUE) {
+            throw new IOException("Too many accounts for one store: " + accounts.size());
+        }
+        File target = new File(filename);
+        File temp = new File(filename + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new Region(channel, 0), 1 << 16));
+            DataOutputStream heap = new DataOutputStream(
+                    new BufferedOutputStream(new Region(channel, heapStart), 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+            long heapEnd = 0;
+            for (BankAccount account : accounts) {
+                out.writeInt(account.accountNumber);
+                out.writeByte(typeCode(account.accountType));
+                out.write(new byte[3]);
+                out.writeLong(account.balance);
+                out.writeLong(checkpointLsn);
+                out.writeLong(heapEnd);
+                heapEnd += writeStrings(heap, account.name(), account.address());
+            }
+            out.flush();
+            heap.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(accounts.size()).putInt(capacity).putLong(heapEnd)
+                    .putLong(checkpointLsn).putInt(interestPeriod).rewind();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            if (channel.size() < heapStart) {
+                // No accounts, so no strings: make the file long enough to map every record slot.
+                channel.write(ByteBuffer.allocate(1), heapStart - 1);
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Writes a byte stream into `channel` from `position` on, without moving
+    // the channel's own position, so two regions can be filled side by side.
+    private static final class Region extends OutputStream {
+        private final FileChannel channel;
+        private long position;
+
+        Region(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    // Returns the number of bytes written.
+    private static int writeStrings(DataOutputStream heap, String name, String address) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] addressBytes = address.getBytes(StandardCharsets.UTF_8);
+        heap.writeInt(nameBytes.length);
+        heap.write(nameBytes);
+        heap.writeInt(addressBytes.length);
+        heap.write(addressBytes);
+        return 8 + nameBytes.length + addressBytes.length;
+    }
+
+    static byte typeCode(String accountType) {
+        return accountType.equals("savings") ? SAVINGS : CURRENT;
+    }
+
+    static String typeName(byte code) {
+        return code == SAVINGS ? "savings" : "current";
+    }
+
+    private void mapFile() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        capacity = header.getInt(CAPACITY);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, heapStart());
+    }
+
+    private long heapStart() {
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    }
+
+    private static int recordAt(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Record slot of the account, or -1 if it is not in the store.
+    public int slotOf(int accountNumber) {
+        return slots.get(accountNumber);
+    }
+
+    public long balanceAt(int slot) {
+        return map.getLong(recordAt(slot) + BALANCE);
+    }
+
+    public byte typeAt(int slot) {
+        return map.get(recordAt(slot) + TYPE);
+    }
+
+    public long lsnAt(int slot) {
+        return map.getLong(recordAt(slot) + LSN);
+    }
+
+    public synchronized long checkpointLsn() {
+        return map.getLong(CHECKPOINT_LSN);
+    }
+
+    // Last period interest was credited for, or 0.
+    public synchronized int interestPeriod() {
+        return map.getInt(INTEREST_PERIOD);
+    }
+
+    // Works out the interest due to every savings record whose LSN is below
+    // `lsn`, in parallel over the fixed-width columns, without changing any
+    // balance. credited[slot] receives the amount (0 for skipped records);
+    // returns the total. A balance that would overflow is left unchanged, as
+    // in Bank.withInterest(). Records already at `lsn` were credited before a
+    // crash and are skipped, so a replayed run only finishes the work.
+    public synchronized long interestDue(long lsn, int basisPoints, long[] credited) {
+        return IntStream.range(0, count).parallel().mapToLong(slot -> {
+            int record = recordAt(slot);
+            if (map.get(record + TYPE) != SAVINGS || map.getLong(record + LSN) >= lsn) {
+                return 0;
+            }
+            long balance = map.getLong(record + BALANCE);
+            credited[slot] = Bank.withInterest(balance, basisPoints) - balance;
+            return credited[slot];
+        }).sum();
+    }
+
+    // Adds what interestDue() worked out to the same records and stamps them
+    // with the run's LSN.
+    public synchronized void creditInterest(long lsn, int period, long[] credited) {
+        IntStream.range(0, count).parallel().forEach(slot -> {
+            int record = recordAt(slot);
+            if (map.get(record + TYPE) == SAVINGS && map.getLong(record + LSN) < lsn) {
+                map.putLong(record + BALANCE, map.getLong(record + BALANCE) + credited[slot]);
+                map.putLong(record + LSN, lsn);
+            }
+        });
+        map.putInt(INTEREST_PERIOD, Math.max(period, map.getInt(INTEREST_PERIOD)));
+    }
+
+    public int accountNumberAt(int slot) {
+        return map.getInt(recordAt(slot) + NUMBER);
+    }
+
+    // Sum of all balances and the highest record LSN, read from the fixed-width columns only.
+    public synchronized long totalBalance() {
+        long total = 0;
+        for (int slot = 0; slot < count; slot++) {
+            total += map.getLong(recordAt(slot) + BALANCE);
+        }
+        return total;
+    }
+
+    public synchronized long maxLsn() {
+        long max = checkpointLsn();
+        for (int slot = 0; slot < count; slot++) {
+            max = Math.max(max, map.getLong(recordAt(slot) + LSN));
+        }
+        return max;
+    }
+
+    // Builds the heap object for one record; this is the only place strings are decoded.
+    public synchronized BankAccount load(int slot) throws IOException {
+        int record = recordAt(slot);
+        ByteBuffer lengths = ByteBuffer.allocate(4);
+        long position = heapStart() + map.getLong(record + HEAP_OFFSET);
+        String name = readString(position, lengths);
+        String address = readString(position + 4 + lengths.getInt(0), lengths);
+        return new BankAccount(name, address, typeName(map.get(record + TYPE)), map.getInt(record + NUMBER),
+                map.getLong(record + BALANCE));
+    }
+
+    private String readString(long position, ByteBuffer length) throws IOException {
+        return new String(readBytes(position, length), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(long position, ByteBuffer length) throws IOException {
+        length.clear();
+        channel.read(length, position);
+        byte[] bytes = new byte[length.getInt(0)];
+        channel.read(ByteBuffer.wrap(bytes), position + 4);
+        return bytes;
+    }
+
+    // The name as stored, in UTF-8, for sorting and prefix matching without
+    // building the account.
+    public synchronized byte[] nameBytes(int slot) throws IOException {
+        return readBytes(heapStart() + map.getLong(recordAt(slot) + HEAP_OFFSET), ByteBuffer.allocate(4));
+    }
+
+    public synchronized String address(int slot) throws IOException {
+        ByteBuffer lengths = ByteBuffer.allocate(4);
+        long position = heapStart() + map.getLong(recordAt(slot) + HEAP_OFFSET);
+        channel.read(lengths, position);
+        return readString(position + 4 + lengths.getInt(0), lengths);
+    }
+
+    // Caller holds the account's stripe.
+    public void updateBalance(int slot, long balance, long lsn) {
+        MappedByteBuffer records = map;
+        int record = recordAt(slot);
+        records.putLong(record + BALANCE, balance);
+        records.putLong(record + LSN, lsn);
+    }
+
+    // True when the next append() has to grow the record region. A caller
+    // that appends while other threads update balances calls grow() first,
+    // with those threads shut out.
+    public synchronized boolean isFull() {
+        return count == capacity;
+    }
+
+    // Grows the record region if it is full. Appends made during recovery,
+    // with no other thread about, may simply let append() grow it.
+    public synchronized int append(BankAccount account, long lsn) throws IOException {
+        if (count == capacity) {
+            grow();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeStrings(new DataOutputStream(bytes), account.name(), account.address());
+        channel.write(ByteBuffer.wrap(bytes.toByteArray()), heapStart() + heapEnd);
+
+        int slot = count;
+        int record = recordAt(slot);
+        map.putInt(record + NUMBER, account.accountNumber);
+        map.put(record + TYPE, typeCode(account.accountType));
+        map.putLong(record + BALANCE, account.balance);
+        map.putLong(record + LSN, lsn);
+        map.putLong(record + HEAP_OFFSET, heapEnd);
+        // Publish the record only after its fields and strings are written.
+        heapEnd += bytes.size();
+        map.putLong(HEAP_END, heapEnd);
+        map.putInt(COUNT, ++count);
+        slots.put(account.accountNumber, slot);
+        return slot;
+    }
+
+    // Doubles the record region. Heap offsets are relative to the heap start,
+    // so the heap is copied across unchanged. A balance written to the old
+    // mapping meanwhile would be lost; see isFull().
+    public synchronized void grow() throws IOException {
+        int newCapacity = capacity * 2;
+        long newHeapStart = HEADER_SIZE + (long) newCapacity * RECORD_SIZE;
+        if (newCapacity <= 0 || newHeapStart > Integer.MAX_VALUE) {
+            // The record region is mapped, and one mapping is limited to 2 GB.
+            throw new IOException("Account store full: " + file);
+        }
+        force();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer records = map.duplicate();
+            records.position(0).limit(recordAt(count));
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(records.duplicate().limit(HEADER_SIZE)).putInt(CAPACITY, newCapacity).flip();
+            out.write(header, 0);
+            out.write(records.position(HEADER_SIZE), HEADER_SIZE);
+            long copied = 0;
+            while (copied < heapEnd) {
+                copied += channel.transferTo(heapStart() + copied, heapEnd - copied, out.position(newHeapStart + copied));
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        mapFile();
+    }
+
+    // Makes every record and heap string durable, then stamps `lsn` as covered.
+    // The strings of appended accounts go through the channel rather than the
+    // mapping, so map.force() alone would not cover them.
+    public synchronized void checkpoint(long lsn) throws IOException {
+        force();
+        map.putLong(CHECKPOINT_LSN, lsn);
+        map.force();
+    }
+
+    public synchronized void force() throws IOException {
+        channel.force(true);
+        map.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    // Account number to slot, for lookups that take no lock while append()
+    // adds entries under the monitor. Entries are never removed or moved, and
+    // a resize fills a new table before publishing it, so a lookup racing an
+    // insert can at worst miss that one entry, never find a wrong slot.
+    private static final class SlotIndex {
+        private static final class Table {
+            final int[] keys;
+            final int[] values;
+            final int mask;
+
+            Table(int capacity) {
+                keys = new int[capacity];
+                values = new int[capacity];
+                Arrays.fill(values, -1);
+                mask = capacity - 1;
+            }
+        }
+
+        private volatile Table table;
+        private int size;
+
+        SlotIndex(int expectedSize) {
+            int capacity = 16;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            table = new Table(capacity);
+        }
+
+        private static int home(int key, int mask) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        int get(int key) {
+            Table t = table;
+            for (int i = home(key, t.mask); t.values[i] != -1; i = (i + 1) & t.mask) {
+                if (t.keys[i] == key) {
+                    return t.values[i];
+                }
+            }
+            return -1;
+        }
+
+        // Single writer: the caller holds the store's monitor, or is opening it.
+        void put(int key, int value) {
+            Table t = table;
+            if ((size + 1) * 2 > t.keys.length) {
+                Table grown = new Table(t.keys.length << 1);
+                for (int i = 0; i < t.keys.length; i++) {
+                    if (t.values[i] != -1) {
+                        insert(grown, t.keys[i], t.values[i]);
+                    }
+                }
+                table = t = grown;
+            }
+            if (insert(t, key, value)) {
+                size++;
+            }
+        }
+
+        // Returns false if the key was already there and only its slot changed.
+        private static boolean insert(Table t, int key, int value) {
+            int i = home(key, t.mask);
+            while (t.values[i] != -1) {
+                if (t.keys[i] == key) {
+                    t.values[i] = value;
+                    return false;
+                }
+                i = (i + 1) & t.mask;
+            }
+            t.keys[i] = key;
+            t.values[i] = value;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Operational metrics for one Bank: a latency histogram per operation, counts
+// of rejected operations by status, the number of accounts, and gauges that
+// other parts of the bank register, such as the account cache's counters.
+// Recording allocates nothing, so metrics are always on.
+//
+// They can be read through JMX (register()) and as a periodic text dump
+// (startReporting()).
+class Metrics {
+    enum Op {
+        FIND_ACCOUNT("findAccount"), DEPOSIT("deposit"), WITHDRAW("withdraw"), TRANSFER("transfer"),
+        LOAD("load"), SAVE("save"), COMPACT("compact"), JOURNAL_SYNC("journalSync");
+
+        final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Bank.Status[] STATUSES = Bank.Status.values();
+    private static final String[] STATISTICS = { "Count", "MeanMicros", "P50Micros", "P99Micros", "P999Micros",
+            "MaxMicros", "Rejected" };
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Op.values().length];
+    // One counter per (operation, status); OK is never counted.
+    private final LongAdder[] rejections = new LongAdder[Op.values().length * STATUSES.length];
+    private final IntSupplier accountCount;
+    // Guarded by itself; read in registration order.
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    private ScheduledExecutorService reporter;
+
+    Metrics(IntSupplier accountCount) {
+        this.accountCount = accountCount;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+    }
+
+    LatencyHistogram latency(Op op) {
+        return latencies[op.ordinal()];
+    }
+
+    void record(Op op, long startNanos) {
+        latencies[op.ordinal()].recordSince(startNanos);
+    }
+
+    void record(Op op, long startNanos, Bank.Status status) {
+        latencies[op.ordinal()].recordSince(startNanos);
+        if (status != Bank.Status.OK) {
+            rejections[op.ordinal() * STATUSES.length + status.ordinal()].increment();
+        }
+    }
+
+    // Publishes a value read on demand, as a JMX attribute and a report line.
+    void gauge(String name, LongSupplier value) {
+        synchronized (gauges) {
+            gauges.put(name, value);
+        }
+    }
+
+    private LongSupplier gaugeNamed(String name) {
+        synchronized (gauges) {
+            return gauges.get(name);
+        }
+    }
+
+    private List<String> gaugeNames() {
+        synchronized (gauges) {
+            return new ArrayList<>(gauges.keySet());
+        }
+    }
+
+    private long rejected(Op op) {
+        long total = 0;
+        for (int s = 0; s < STATUSES.length; s++) {
+            total += rejections[op.ordinal() * STATUSES.length + s].sum();
+        }
+        return total;
+    }
+
+    String report() {
+        StringBuilder out = new StringBuilder();
+        out.append("Metrics: ").append(accountCount.getAsInt()).append(" accounts\n");
+        out.append(String.format("%-12s %10s %10s %10s %10s %10s %10s  %s%n", "operation", "count", "mean us",
+                "p50 us", "p99 us", "p99.9 us", "max us", "rejected"));
+        for (Op op : Op.values()) {
+            LatencyHistogram.Snapshot s = latencies[op.ordinal()].snapshot();
+            if (s.count == 0) {
+                continue;
+            }
+            out.append(String.format("%-12s %10d %10.1f %10.1f %10.1f %10.1f %10.1f  %s%n", op.label, s.count,
+                    s.mean() / 1000, s.valueAt(50) / 1000.0, s.valueAt(99) / 1000.0, s.valueAt(99.9) / 1000.0,
+                    s.max / 1000.0, rejectionSummary(op)));
+        }
+        List<String> names = gaugeNames();
+        for (int i = 0; i < names.size(); i++) {
+            out.append(i == 0 ? "" : ", ").append(names.get(i)).append('=').append(gaugeNamed(names.get(i)).getAsLong());
+        }
+        if (!names.isEmpty()) {
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private String rejectionSummary(Op op) {
+        StringBuilder summary = new StringBuilder();
+        for (Bank.Status status : STATUSES) {
+            long n = rejections[op.ordinal() * STATUSES.length + status.ordinal()].sum();
+            if (n > 0) {
+                summary.append(summary.length() == 0 ? "" : " ").append(status).append('=').append(n);
+            }
+        }
+        return summary.length() == 0 ? "0" : summary.toString();
+    }
+
+    // Prints report() every `seconds` seconds from a daemon thread.
+    synchronized void startReporting(long seconds, PrintStream out) {
+        stopReporting();
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-report");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> out.print(report()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+
+    // Publishes the metrics on the platform MBean server as "Bank:type=Metrics,name=<name>".
+    ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("Bank:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), objectName);
+        return objectName;
+    }
+
+    // Attributes AccountCount, one per gauge and, per operation, e.g.
+    // depositCount, depositP99Micros, depositRejected; operation report().
+    private class MBean implements DynamicMBean {
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (attribute.equals("AccountCount")) {
+                return accountCount.getAsInt();
+            }
+            LongSupplier gauge = gaugeNamed(attribute);
+            if (gauge != null) {
+                return gauge.getAsLong();
+            }
+            for (Op op : Op.values()) {
+                if (!attribute.startsWith(op.label)) {
+                    continue;
+                }
+                String statistic = attribute.substring(op.label.length());
+                if (statistic.equals("Rejected")) {
+                    return rejected(op);
+                }
+                LatencyHistogram.Snapshot s = latencies[op.ordinal()].snapshot();
+                switch (statistic) {
+                    case "Count":
+                        return s.count;
+                    case "MeanMicros":
+                        return s.mean() / 1000;
+                    case "P50Micros":
+                        return s.valueAt(50) / 1000.0;
+                    case "P99Micros":
+                        return s.valueAt(99) / 1000.0;
+                    case "P999Micros":
+                        return s.valueAt(99.9) / 1000.0;
+                    case "MaxMicros":
+                        return s.max / 1000.0;
+                    default:
+                        break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Unknown names are left out, as the DynamicMBean contract allows.
+                }
+            }
+            return list;
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (actionName.equals("report")) {
+                return report();
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            attributes.add(new MBeanAttributeInfo("AccountCount", "int", "Number of accounts", true, false, false));
+            for (String name : gaugeNames()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            for (Op op : Op.values()) {
+                for (String statistic : STATISTICS) {
+                    String type = statistic.endsWith("Micros") ? "double" : "long";
+                    attributes.add(new MBeanAttributeInfo(op.label + statistic, type, op.label + " " + statistic,
+                            true, false, false));
+                }
+            }
+            MBeanOperationInfo report = new MBeanOperationInfo("report", "All metrics as text",
+                    new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+            return new MBeanInfo(Metrics.class.getName(), "Bank operation metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] { report }, null);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.nio.charset.StandardCharsets;
+
+// Money is a long count of minor units (cents), so sums are exact and nothing
+// is allocated per operation. The text form is whole units with an optional
+// one or two digit fraction: "120", "120.5", "120.50".
+final class Money {
+    static final int MINOR_PER_MAJOR = 100;
+
+    private Money() {
+    }
+
+    static long ofMajor(long major) {
+        return Math.multiplyExact(major, MINOR_PER_MAJOR);
+    }
+
+    static long parse(String text) {
+        byte[] bytes = text.trim().getBytes(StandardCharsets.ISO_8859_1);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    // Parses ASCII text[from, to) without allocating, e.g. straight from a file buffer.
+    static long parse(byte[] text, int from, int to) {
+        int start = from < to && text[from] == '-' ? from + 1 : from;
+        int dot = -1;
+        for (int i = start; i < to; i++) {
+            if (text[i] == '.') {
+                dot = i;
+                break;
+            }
+        }
+        int fractionDigits = dot < 0 ? 0 : to - dot - 1;
+        if ((dot < 0 ? to : dot) == start || fractionDigits > 2 || fractionDigits == 0 && dot >= 0) {
+            throw notAnAmount(text, from, to);
+        }
+        long minor = 0;
+        try {
+            for (int i = start; i < to; i++) {
+                if (i == dot) {
+                    continue;
+                }
+                byte c = text[i];
+                if (c < '0' || c > '9') {
+                    throw notAnAmount(text, from, to);
+                }
+                minor = Math.addExact(Math.multiplyExact(minor, 10), c - '0');
+            }
+            if (fractionDigits < 2) {
+                minor = Math.multiplyExact(minor, fractionDigits == 0 ? 100 : 10);
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(
+                    "Amount out of range: " + new String(text, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        return start > from ? -minor : minor;
+    }
+
+    private static IllegalArgumentException notAnAmount(byte[] text, int from, int to) {
+        return new IllegalArgumentException(
+                "Not an amount: " + new String(text, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+    static String format(long minor) {
+        return appendTo(new StringBuilder(24), minor).toString();
+    }
+
+    // format() without the intermediate String, for output built in a reused buffer.
+    static StringBuilder appendTo(StringBuilder out, long minor) {
+        long major = minor / MINOR_PER_MAJOR;
+        long cents = Math.abs(minor % MINOR_PER_MAJOR);
+        if (minor < 0 && major == 0) {
+            out.append('-');
+        }
+        return out.append(major).append(cents < 10 ? ".0" : ".").append(cents);
+    }
+}
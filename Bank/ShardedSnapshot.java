@@ -0,0 +1,254 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// The text snapshot, partitioned by account number into N shard files
+// shard-000.txt ... in one directory: an account lives in shard
+// floorMod(accountNumber, N). A plain accounts file is the one-shard case.
+//
+// Every shard is a complete SnapshotFile with its own headers, including the
+// journal LSN it was written at, so shards can be flushed independently:
+// replay skips a record for an account whose shard already covers its LSN.
+// A shard is only rewritten when something in it changed, and dirty shards
+// are written in parallel. Compaction takes the dirty flags and a view of the
+// balances at the journal cut, with every writer shut out, and then writes the
+// shards from the view while writers carry on.
+// Loading reads all shards concurrently and checks each against the account
+// count and total balance recorded in its header.
+class ShardedSnapshot {
+    // First header of a shard: the last journal LSN already folded into it.
+    static final String LSN_PREFIX = "#LSN ";
+    // Optional second header: the last period (yyyyMM) interest was credited for.
+    static final String INTEREST_PREFIX = "#INTEREST ";
+    // Optional header: "#TOTAL <accounts> <sum of balances>", checked on load.
+    static final String TOTAL_PREFIX = "#TOTAL ";
+    private static final String SHARD_NAME = "shard-%03d.txt";
+
+    private final File[] files;
+    // False for a single plain file, which must exist to be loaded.
+    private final boolean sharded;
+    private final long[] lsns;
+    // Set under the lock that guards the change (an account's stripe or the
+    // structure write lock) and taken by compaction, which holds all of them.
+    private final boolean[] dirty;
+    private int interestPeriod;
+    private int mismatchedShards;
+
+    private ShardedSnapshot(File[] files, boolean sharded) {
+        this.files = files;
+        this.sharded = sharded;
+        lsns = new long[files.length];
+        dirty = new boolean[files.length];
+    }
+
+    static ShardedSnapshot single(File file) {
+        return new ShardedSnapshot(new File[] { file }, false);
+    }
+
+    // An existing shard directory; the shard count is the number of shard files in it.
+    static ShardedSnapshot open(File directory) throws IOException {
+        int count = 0;
+        while (new File(directory, String.format(SHARD_NAME, count)).exists()) {
+            count++;
+        }
+        if (count == 0) {
+            throw new IOException("No shard files in " + directory);
+        }
+        return new ShardedSnapshot(shardFiles(directory, count), true);
+    }
+
+    // A new, empty set of shards; every shard is written on the first flush.
+    static ShardedSnapshot create(File directory, int shards) throws IOException {
+        if (shards < 1 || shards > 1000) {
+            throw new IllegalArgumentException("Shard count must be between 1 and 1000: " + shards);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        if (new File(directory, String.format(SHARD_NAME, 0)).exists()) {
+            throw new IOException("Already holds shards: " + directory);
+        }
+        ShardedSnapshot snapshot = new ShardedSnapshot(shardFiles(directory, shards), true);
+        snapshot.markAllDirty();
+        return snapshot;
+    }
+
+    private static File[] shardFiles(File directory, int count) {
+        File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = new File(directory, String.format(SHARD_NAME, i));
+        }
+        return files;
+    }
+
+    int shardCount() {
+        return files.length;
+    }
+
+    int shardOf(int accountNumber) {
+        return Math.floorMod(accountNumber, files.length);
+    }
+
+    long minLsn() {
+        long min = Long.MAX_VALUE;
+        for (long lsn : lsns) {
+            min = Math.min(min, lsn);
+        }
+        return min;
+    }
+
+    long maxLsn() {
+        long max = 0;
+        for (long lsn : lsns) {
+            max = Math.max(max, lsn);
+        }
+        return max;
+    }
+
+    int interestPeriod() {
+        return interestPeriod;
+    }
+
+    // Shards whose accounts did not add up to their #TOTAL header in the last load().
+    int mismatchedShards() {
+        return mismatchedShards;
+    }
+
+    static String totalHeader(int accounts, long balance) {
+        return TOTAL_PREFIX + accounts + " " + Money.format(balance);
+    }
+
+    // True if the account's shard was written after journal record `lsn`.
+    boolean covers(int accountNumber, long lsn) {
+        return lsn > 0 && lsn <= lsns[shardOf(accountNumber)];
+    }
+
+    void markDirty(int accountNumber) {
+        dirty[shardOf(accountNumber)] = true;
+    }
+
+    // Clears the dirty flags and returns them. The caller shuts out every writer.
+    boolean[] takeDirty() {
+        boolean[] taken = dirty.clone();
+        Arrays.fill(dirty, false);
+        return taken;
+    }
+
+    void markAllDirty() {
+        for (int i = 0; i < dirty.length; i++) {
+            dirty[i] = true;
+        }
+    }
+
+    // Reads every shard concurrently and returns each shard's accounts in file order.
+    List<List<BankAccount>> load() throws IOException {
+        List<List<BankAccount>> shards = new ArrayList<>(files.length);
+        int[] periods = new int[files.length];
+        String[] totals = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            shards.add(new ArrayList<>());
+        }
+        try {
+            IntStream.range(0, files.length).parallel().forEach(i -> {
+                if (sharded && !files[i].exists()) {
+                    return;
+                }
+                List<BankAccount> shard = shards.get(i);
+                try {
+                    SnapshotFile.read(files[i], new SnapshotFile.Handler() {
+                        public void header(String line) {
+                            if (line.startsWith(LSN_PREFIX)) {
+                                lsns[i] = Long.parseLong(line.substring(LSN_PREFIX.length()).trim());
+                            } else if (line.startsWith(INTEREST_PREFIX)) {
+                                periods[i] = Integer.parseInt(line.substring(INTEREST_PREFIX.length()).trim());
+                            } else if (line.startsWith(TOTAL_PREFIX)) {
+                                totals[i] = line.trim();
+                            }
+                        }
+
+                        public void account(BankAccount account) {
+                            shard.add(account);
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (int period : periods) {
+            interestPeriod = Math.max(interestPeriod, period);
+        }
+        mismatchedShards = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (totals[i] == null) {
+                continue;
+            }
+            long balance = 0;
+            for (BankAccount account : shards.get(i)) {
+                balance += account.balance;
+            }
+            String found = totalHeader(shards.get(i).size(), balance);
+            if (!found.equals(totals[i])) {
+                mismatchedShards++;
+                System.err.println("Snapshot " + files[i] + " does not add up: header says \""
+                        + totals[i].substring(TOTAL_PREFIX.length()) + "\", file holds \""
+                        + found.substring(TOTAL_PREFIX.length()) + "\".");
+            }
+        }
+        return shards;
+    }
+
+    // Rewrites the given shards, in parallel, from a view of the balances
+    // taken at journal LSN `lsn`. Other shards keep their file and LSN. A
+    // shard that fails to write is marked dirty again. Returns the number of
+    // shards written.
+    int flush(long lsn, int period, AccountTable.Snapshot accounts, boolean[] shards) throws IOException {
+        int[][] rows = new int[files.length][];
+        int[] counts = new int[files.length];
+        long[] balances = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            rows[i] = shards[i] ? new int[16] : null;
+        }
+        for (int row = 0; row < accounts.size(); row++) {
+            int i = shardOf(accounts.number(row));
+            if (rows[i] != null) {
+                if (counts[i] == rows[i].length) {
+                    rows[i] = Arrays.copyOf(rows[i], counts[i] * 2);
+                }
+                rows[i][counts[i]++] = row;
+                balances[i] += accounts.balance(row);
+            }
+        }
+        // Every shard is attempted even if one fails, so none is left both unwritten and clean.
+        IOException[] failures = new IOException[files.length];
+        IntStream.range(0, files.length).parallel().filter(i -> rows[i] != null).forEach(i -> {
+            List<String> headers = new ArrayList<>();
+            headers.add(LSN_PREFIX + lsn);
+            if (period > 0) {
+                headers.add(INTEREST_PREFIX + period);
+            }
+            headers.add(totalHeader(counts[i], balances[i]));
+            try {
+                SnapshotFile.write(files[i], headers, accounts.rows(rows[i], counts[i]));
+                lsns[i] = lsn;
+            } catch (IOException e) {
+                failures[i] = e;
+                dirty[i] = true;
+            }
+        });
+        int written = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (failures[i] != null) {
+                throw failures[i];
+            }
+            if (rows[i] != null) {
+                written++;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+// The accounts text file: one record per customer, six lines each
+//
+//   name / address / savings|current / account number / balance / separator
+//
+// optionally preceded by header lines starting with '#'.
+//
+// Reading streams the file once through a fixed buffer with a hand-rolled
+// line parser; numbers are parsed straight from the bytes. Names and
+// addresses are not decoded: each account keeps the offset of its two body
+// lines and decodes them on first use from a read-only mapping of the file.
+// The mapping stays valid after the file is replaced by a newer snapshot, and
+// holds no file descriptor. Files over 2 GB cannot be mapped in one piece, so
+// their bodies are decoded while reading instead.
+class SnapshotFile {
+    static final String SEPARATOR = "-----------------------#CUSTOMER#--------------------";
+    private static final byte[] SEPARATOR_BYTES = SEPARATOR.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SAVINGS = "savings".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CURRENT = "current".getBytes(StandardCharsets.US_ASCII);
+
+    interface Handler {
+        // A line starting with '#' outside a record.
+        void header(String line);
+
+        void account(BankAccount account) throws IOException;
+    }
+
+    // Read-only mapping of the whole file; null when bodies were decoded eagerly.
+    private final BodySegment bodies;
+
+    // Reader state, only used while read() runs.
+    private InputStream in;
+    private byte[] buffer = new byte[1 << 16];
+    private long bufferStart;
+    private int position;
+    private int limit;
+    private long lineNumber;
+    private int lineFrom;
+    private int lineTo;
+    private long lineStart;
+
+    private SnapshotFile(BodySegment bodies) {
+        this.bodies = bodies;
+    }
+
+    // Streams every record in the file to the handler.
+    static void read(File file, Handler handler) throws IOException {
+        BodySegment bodies = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() <= Integer.MAX_VALUE) {
+                bodies = new BodySegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        SnapshotFile snapshot = new SnapshotFile(bodies);
+        try (InputStream in = new FileInputStream(file)) {
+            snapshot.in = in;
+            snapshot.parse(handler);
+        } finally {
+            snapshot.in = null;
+            snapshot.buffer = null;
+        }
+    }
+
+    private void parse(Handler handler) throws IOException {
+        while (nextLine()) {
+            if (lineTo > lineFrom && buffer[lineFrom] == '#') {
+                handler.header(lineString());
+                continue;
+            }
+            long bodyStart = lineStart;
+            String name = bodies == null ? lineString() : null;
+            if (!nextLine()) {
+                break;
+            }
+            long bodyEnd = lineStart + (lineTo - lineFrom);
+            String address = bodies == null ? lineString() : null;
+            if (!nextLine()) {
+                break;
+            }
+            String accountType = lineEquals(SAVINGS) ? "savings" : lineEquals(CURRENT) ? "current" : lineString();
+            if (!nextLine()) {
+                break;
+            }
+            int accountNumber = parseAccountNumber();
+            if (!nextLine()) {
+                break;
+            }
+            // Older files hold whole units ("120"), newer ones "120.00"; parse reads both.
+            long balance;
+            try {
+                balance = Money.parse(buffer, lineFrom, lineTo);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+            }
+            while (nextLine() && !lineEquals(SEPARATOR_BYTES))
+                ;
+            if (bodies == null) {
+                handler.account(new BankAccount(name, address, accountType, accountNumber, balance));
+            } else {
+                handler.account(new BankAccount(bodies, (int) bodyStart, (int) (bodyEnd - bodyStart), accountType,
+                        accountNumber, balance));
+            }
+        }
+    }
+
+    private int parseAccountNumber() throws IOException {
+        boolean negative = lineTo > lineFrom && buffer[lineFrom] == '-';
+        int from = negative ? lineFrom + 1 : lineFrom;
+        long value = 0;
+        for (int i = from; i < lineTo && value <= Integer.MAX_VALUE + 1L; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                value = Long.MAX_VALUE;
+                break;
+            }
+            value = value * 10 + (b - '0');
+        }
+        if (from == lineTo || value > (negative ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE)) {
+            throw new IOException("Line " + lineNumber + ": not an account number: " + lineString());
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    // Advances to the next line; its bytes are buffer[lineFrom, lineTo) without the line ending.
+    private boolean nextLine() throws IOException {
+        int scan = position;
+        while (true) {
+            while (scan < limit && buffer[scan] != '\n') {
+                scan++;
+            }
+            if (scan < limit) {
+                setLine(scan, scan + 1);
+                return true;
+            }
+            int consumed = position;
+            if (!fill()) {
+                if (position == limit) {
+                    return false;
+                }
+                setLine(limit, limit); // last line without a newline
+                return true;
+            }
+            scan -= consumed - position;
+        }
+    }
+
+    private void setLine(int end, int next) {
+        lineNumber++;
+        lineFrom = position;
+        lineTo = end > position && buffer[end - 1] == '\r' ? end - 1 : end;
+        lineStart = bufferStart + position;
+        position = next;
+    }
+
+    // Moves the unread tail to the front and reads more, growing the buffer
+    // if a single line fills it. Returns false at end of file.
+    private boolean fill() throws IOException {
+        int tail = limit - position;
+        if (position == 0 && tail == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, tail);
+            bufferStart += position;
+            position = 0;
+            limit = tail;
+        }
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n <= 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    private boolean lineEquals(byte[] text) {
+        return Arrays.equals(buffer, lineFrom, lineTo, text, 0, text.length);
+    }
+
+    private String lineString() {
+        return new String(buffer, lineFrom, lineTo - lineFrom, StandardCharsets.UTF_8);
+    }
+
+    // Writes a complete file to a temporary name, forces it to disk and renames
+    // it into place, so a crash mid-write never leaves a half-written file.
+    static void write(File file, List<String> headers, List<BankAccount> accounts) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp);
+                BufferedOutputStream out = new BufferedOutputStream(fileOut, 1 << 16)) {
+            for (String header : headers) {
+                writeLine(out, header);
+            }
+            for (BankAccount account : accounts) {
+                account.writeBody(out);
+                out.write('\n');
+                writeLine(out, account.accountType);
+                writeLine(out, Integer.toString(account.accountNumber));
+                writeLine(out, Money.format(account.balance));
+                out.write(SEPARATOR_BYTES);
+                out.write('\n');
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+}
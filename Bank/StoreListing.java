@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntToLongFunction;
+
+// Listings and searches read straight from a MappedAccountStore, for the
+// account cache, which keeps the bank's own table empty. A listing is a
+// read-only list of record slots: an account is built from the store only
+// when its element is read, with the balance it has at that moment, and is
+// not kept. Nothing holds writers off, so unlike a listing from the table,
+// the balances are not all from one moment.
+//
+// Memory, while a listing is alive, is one int per account in it (none for
+// all()). Sorting by number also takes a long per account; sorting by name
+// reads every name once and holds their UTF-8 bytes until the sort is done.
+// A search holds only its matches.
+class StoreListing extends AbstractList<BankAccount> {
+    private final MappedAccountStore store;
+    // Null for every slot in order.
+    private final int[] slots;
+    private final int count;
+    private final IntToLongFunction balance;
+
+    private StoreListing(MappedAccountStore store, int[] slots, int count, IntToLongFunction balance) {
+        this.store = store;
+        this.slots = slots;
+        this.count = count;
+        this.balance = balance;
+    }
+
+    @Override
+    public BankAccount get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        int slot = slots == null ? index : slots[index];
+        try {
+            BankAccount account = store.load(slot);
+            account.balance = balance.applyAsLong(slot);
+            return account;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    // Every account, in the order they were opened. `balance` gives a slot's
+    // current balance.
+    static StoreListing all(MappedAccountStore store, IntToLongFunction balance) {
+        return new StoreListing(store, null, store.size(), balance);
+    }
+
+    // Packs (accountNumber, slot) into one long, as AccountOrder does for rows.
+    static StoreListing byNumber(MappedAccountStore store, IntToLongFunction balance) {
+        int count = store.size();
+        long[] packed = new long[count];
+        for (int slot = 0; slot < count; slot++) {
+            packed[slot] = ((long) store.accountNumberAt(slot) << 32) | slot;
+        }
+        Arrays.parallelSort(packed);
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = (int) packed[i];
+        }
+        return new StoreListing(store, slots, count, balance);
+    }
+
+    // Savings accounts first, then everything else, each group in the order they were opened.
+    static StoreListing byType(MappedAccountStore store, IntToLongFunction balance) {
+        int count = store.size();
+        int savings = 0;
+        for (int slot = 0; slot < count; slot++) {
+            if (store.typeAt(slot) == MappedAccountStore.SAVINGS) {
+                savings++;
+            }
+        }
+        int[] slots = new int[count];
+        int s = 0;
+        int other = savings;
+        for (int slot = 0; slot < count; slot++) {
+            slots[store.typeAt(slot) == MappedAccountStore.SAVINGS ? s++ : other++] = slot;
+        }
+        return new StoreListing(store, slots, count, balance);
+    }
+
+    // Names are compared as UTF-8 bytes, as in the table; equal names stay in the order they were opened.
+    static StoreListing byName(MappedAccountStore store, IntToLongFunction balance) throws IOException {
+        int count = store.size();
+        int[] slots = new int[count];
+        byte[][] names = new byte[count][];
+        for (int slot = 0; slot < count; slot++) {
+            slots[slot] = slot;
+            names[slot] = store.nameBytes(slot);
+        }
+        return new StoreListing(store, sortByName(slots, names, count), count, balance);
+    }
+
+    // Accounts matching every non-null key, with the same rules as
+    // AccountIndexes.search(): a case-sensitive name prefix, an address word
+    // in any case, an exact account type. In name order when a prefix is
+    // given, otherwise in the order they were opened. One pass over the store;
+    // names and addresses are only read for accounts the earlier keys let through.
+    static StoreListing search(MappedAccountStore store, IntToLongFunction balance, String namePrefix,
+            String addressWord, String accountType) throws IOException {
+        byte type = accountType != null ? MappedAccountStore.typeCode(accountType) : 0;
+        if (accountType != null && !MappedAccountStore.typeName(type).equals(accountType)) {
+            return new StoreListing(store, new int[0], 0, balance);
+        }
+        byte[] prefix = namePrefix != null ? namePrefix.getBytes(StandardCharsets.UTF_8) : null;
+        String word = addressWord != null ? addressWord.toLowerCase(Locale.ROOT) : null;
+        int[] matches = new int[16];
+        byte[][] names = prefix != null ? new byte[16][] : null;
+        int found = 0;
+        int count = store.size();
+        for (int slot = 0; slot < count; slot++) {
+            if (accountType != null && store.typeAt(slot) != type) {
+                continue;
+            }
+            byte[] name = null;
+            if (prefix != null) {
+                name = store.nameBytes(slot);
+                if (name.length < prefix.length || !Arrays.equals(name, 0, prefix.length, prefix, 0, prefix.length)) {
+                    continue;
+                }
+            }
+            if (word != null && !AccountIndexes.words(store.address(slot)).contains(word)) {
+                continue;
+            }
+            if (found == matches.length) {
+                matches = Arrays.copyOf(matches, found * 2);
+                if (names != null) {
+                    names = Arrays.copyOf(names, found * 2);
+                }
+            }
+            if (names != null) {
+                names[found] = name;
+            }
+            matches[found++] = slot;
+        }
+        return new StoreListing(store, names != null ? sortByName(matches, names, found) : matches, found, balance);
+    }
+
+    // slots[0, count) reordered by names[i], the name of slots[i]; a stable merge sort.
+    private static int[] sortByName(int[] slots, byte[][] names, int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[count], names, 0, count);
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = slots[order[i]];
+        }
+        return sorted;
+    }
+
+    private static void mergeSort(int[] order, int[] scratch, byte[][] names, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, scratch, names, from, mid);
+        mergeSort(order, scratch, names, mid, to);
+        if (Arrays.compareUnsigned(names[order[mid - 1]], names[order[mid]]) <= 0) {
+            return; // halves already in order
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        int k = from;
+        while (i < mid && j < to) {
+            order[k++] = Arrays.compareUnsigned(names[scratch[j]], names[scratch[i]]) < 0 ? scratch[j++] : scratch[i++];
+        }
+        while (i < mid) {
+            order[k++] = scratch[i++];
+        }
+        while (j < to) {
+            order[k++] = scratch[j++];
+        }
+    }
+}
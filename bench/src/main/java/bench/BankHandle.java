@@ -0,0 +1,182 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+// Bank lives in the default package, which JMH benchmark classes cannot
+// import. This bridge reaches it through method handles held in static final
+// fields, which the JIT constant-folds, so the indirection costs next to
+// nothing in the measured loops.
+final class BankHandle {
+    private static final MethodHandle NEW_BANK;
+    private static final MethodHandle FIND_ACCOUNT;
+    private static final MethodHandle DEPOSIT;
+    private static final MethodHandle WITHDRAW;
+    private static final MethodHandle TRANSFER;
+    private static final MethodHandle LOAD;
+    private static final MethodHandle SAVE;
+    private static final MethodHandle RECOVER;
+    private static final MethodHandle SHUTDOWN;
+    private static final MethodHandle SORT_BY_ACCOUNT_NUMBER;
+    private static final MethodHandle SORT_BY_NAME;
+    private static final MethodHandle SORT_BY_ACCOUNT_TYPE;
+    private static final MethodHandle ACCOUNTS;
+
+    static {
+        try {
+            Class<?> bank = Class.forName("Bank");
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(bank, MethodHandles.lookup());
+            MethodType voidType = MethodType.methodType(void.class);
+            MethodType stringType = MethodType.methodType(void.class, String.class);
+            NEW_BANK = erase(lookup.findConstructor(bank, voidType));
+            FIND_ACCOUNT = erase(lookup.findVirtual(bank, "findAccount",
+                    MethodType.methodType(Class.forName("BankAccount"), int.class)));
+            Class<?> status = Class.forName("Bank$Status");
+            DEPOSIT = erase(lookup.findVirtual(bank, "deposit", MethodType.methodType(status, int.class, long.class)));
+            WITHDRAW = erase(lookup.findVirtual(bank, "withdraw", MethodType.methodType(status, int.class, long.class)));
+            TRANSFER = erase(lookup.findVirtual(bank, "transfer",
+                    MethodType.methodType(status, int.class, int.class, long.class)));
+            LOAD = erase(lookup.findVirtual(bank, "loadAccountsFromFile", stringType));
+            SAVE = erase(lookup.findVirtual(bank, "saveAccountsToFile", stringType));
+            RECOVER = erase(lookup.findVirtual(bank, "recover",
+                    MethodType.methodType(void.class, String.class, String.class)));
+            SHUTDOWN = erase(lookup.findVirtual(bank, "shutdown", voidType));
+            MethodType listType = MethodType.methodType(List.class);
+            SORT_BY_ACCOUNT_NUMBER = erase(lookup.findVirtual(bank, "sortByAccountNumber", listType));
+            SORT_BY_NAME = erase(lookup.findVirtual(bank, "sortByName", listType));
+            SORT_BY_ACCOUNT_TYPE = erase(lookup.findVirtual(bank, "sortByAccountType", listType));
+            ACCOUNTS = erase(lookup.findGetter(bank, "accounts", Class.forName("AccountTable")));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Replaces the Bank receiver and any non-primitive return type with Object,
+    // the only types the callers below can name.
+    static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        if (type.parameterCount() > 0) {
+            type = type.changeParameterType(0, Object.class);
+        }
+        if (!type.returnType().isPrimitive()) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private final Object bank;
+
+    BankHandle() {
+        try {
+            bank = (Object) NEW_BANK.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    Object findAccount(int accountNumber) {
+        try {
+            return (Object) FIND_ACCOUNT.invokeExact(bank, accountNumber);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    Object deposit(int accountNumber, long amount) {
+        try {
+            return (Object) DEPOSIT.invokeExact(bank, accountNumber, amount);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    Object withdraw(int accountNumber, long amount) {
+        try {
+            return (Object) WITHDRAW.invokeExact(bank, accountNumber, amount);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    Object transfer(int fromAccount, int toAccount, long amount) {
+        try {
+            return (Object) TRANSFER.invokeExact(bank, fromAccount, toAccount, amount);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    void load(String filename) {
+        invoke(LOAD, filename);
+    }
+
+    void save(String filename) {
+        invoke(SAVE, filename);
+    }
+
+    void recover(String snapshotFile, String journalFile) {
+        try {
+            RECOVER.invokeExact(bank, snapshotFile, journalFile);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    void shutdown() {
+        invoke(SHUTDOWN);
+    }
+
+    Object sort(String sortBy) {
+        try {
+            switch (sortBy) {
+                case "accountNumber":
+                    return (Object) SORT_BY_ACCOUNT_NUMBER.invokeExact(bank);
+                case "name":
+                    return (Object) SORT_BY_NAME.invokeExact(bank);
+                case "accountType":
+                    return (Object) SORT_BY_ACCOUNT_TYPE.invokeExact(bank);
+                default:
+                    throw new IllegalArgumentException("Unknown sort key: " + sortBy);
+            }
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Object> accounts() {
+        try {
+            return (List<Object>) (Object) ACCOUNTS.invokeExact(bank);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private void invoke(MethodHandle handle) {
+        try {
+            handle.invokeExact(bank);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private void invoke(MethodHandle handle, String argument) {
+        try {
+            handle.invokeExact(bank, argument);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new RuntimeException(t);
+    }
+}
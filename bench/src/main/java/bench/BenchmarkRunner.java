@@ -0,0 +1,52 @@
+package bench;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the whole suite and writes one JSON result file per run into
+// results/, so two versions can be compared file by file.
+//
+//   java -jar target/benchmarks.jar [account counts, e.g. 1000,100000] [max threads]
+//
+// For anything more specific, use JMH's own launcher:
+//   java -cp target/benchmarks.jar org.openjdk.jmh.Main <regex> -rf json
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        String[] accounts = args.length > 0 ? args[0].split(",") : null;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        File results = new File("results");
+        results.mkdirs();
+
+        run(options(accounts, new File(results, "single-thread.json"))
+                .include(LookupBenchmark.class.getSimpleName())
+                .include(SortBenchmark.class.getSimpleName())
+                .include(PersistenceBenchmark.class.getSimpleName()));
+
+        // Doubling from 1, with the maximum itself as the last step when it is not a power of two.
+        for (int threads = 1; threads <= maxThreads;
+                threads = threads == maxThreads ? maxThreads + 1 : Math.min(threads * 2, maxThreads)) {
+            run(options(accounts, new File(results, "workload-" + threads + "t.json"))
+                    .include(WorkloadBenchmark.class.getSimpleName())
+                    .threads(threads));
+        }
+    }
+
+    private static ChainedOptionsBuilder options(String[] accounts, File result) {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath());
+        if (accounts != null) {
+            options.param("accounts", accounts);
+        }
+        return options;
+    }
+
+    private static void run(ChainedOptionsBuilder options) throws RunnerException {
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Single-account lookup by number, the first step of every account operation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class LookupBenchmark {
+    private static final int PROBES = 1 << 12;
+
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+    public int accounts;
+
+    private BankHandle bank;
+    private final int[] probes = new int[PROBES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bank = SyntheticBook.loadedBank(accounts);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < PROBES; i++) {
+            // One probe in eight misses, like a mistyped account number.
+            probes[i] = i % 8 == 0 ? -1 - i : SyntheticBook.FIRST_ACCOUNT + random.nextInt(accounts);
+        }
+    }
+
+    @Benchmark
+    public Object findAccount() {
+        return bank.findAccount(probes[next++ & (PROBES - 1)]);
+    }
+}
@@ -0,0 +1,86 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+// Drives AccountOrder over its own AccountTable, so sorts can be measured cold
+// (nothing cached) and incrementally (a few new rows merged into a cached order).
+final class OrderHandle {
+    private static final MethodHandle NEW_TABLE;
+    private static final MethodHandle NEW_ORDER;
+    private static final MethodHandle APPEND;
+    private static final MethodHandle SORTED;
+    private static final MethodHandle NEW_ACCOUNT;
+    private static final Class<?> KEY;
+
+    static {
+        try {
+            Class<?> order = Class.forName("AccountOrder");
+            Class<?> table = Class.forName("AccountTable");
+            Class<?> account = Class.forName("BankAccount");
+            KEY = Class.forName("AccountOrder$Key");
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(order, MethodHandles.lookup());
+            NEW_TABLE = BankHandle.erase(lookup.findConstructor(table, MethodType.methodType(void.class)));
+            NEW_ORDER = lookup.findConstructor(order, MethodType.methodType(void.class, table))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            APPEND = lookup.findVirtual(table, "append", MethodType.methodType(int.class, account))
+                    .asType(MethodType.methodType(int.class, Object.class, Object.class));
+            SORTED = lookup.findVirtual(order, "sorted", MethodType.methodType(List.class, KEY))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            MethodHandle newAccount = lookup.findConstructor(account, MethodType.methodType(void.class,
+                    String.class, String.class, String.class, int.class, long.class));
+            NEW_ACCOUNT = newAccount.asType(newAccount.type().changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object table;
+    private final Object order;
+
+    OrderHandle() {
+        try {
+            table = (Object) NEW_TABLE.invokeExact();
+            order = (Object) NEW_ORDER.invokeExact(table);
+        } catch (Throwable t) {
+            throw BankHandle.rethrow(t);
+        }
+    }
+
+    static Object key(String sortBy) {
+        String name = sortBy.equals("accountNumber") ? "ACCOUNT_NUMBER"
+                : sortBy.equals("accountType") ? "ACCOUNT_TYPE" : "NAME";
+        for (Object constant : KEY.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("Unknown sort key: " + sortBy);
+    }
+
+    static Object newAccount(String name, String address, String accountType, int accountNumber, long balance) {
+        try {
+            return (Object) NEW_ACCOUNT.invokeExact(name, address, accountType, accountNumber, balance);
+        } catch (Throwable t) {
+            throw BankHandle.rethrow(t);
+        }
+    }
+
+    void add(Object account) {
+        try {
+            int row = (int) APPEND.invokeExact(table, account);
+        } catch (Throwable t) {
+            throw BankHandle.rethrow(t);
+        }
+    }
+
+    Object sorted(Object key) {
+        try {
+            return (Object) SORTED.invokeExact(order, key);
+        } catch (Throwable t) {
+            throw BankHandle.rethrow(t);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Full load of an accounts file into a fresh Bank, and a full save back out.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class PersistenceBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+    public int accounts;
+
+    private String source;
+    private String target;
+    private BankHandle loaded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = SyntheticBook.textFile(accounts).getPath();
+        target = File.createTempFile("bank-bench-save", ".txt").getPath();
+        loaded = SyntheticBook.loadedBank(accounts);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(target).delete();
+    }
+
+    @Benchmark
+    public BankHandle load() {
+        BankHandle bank = new BankHandle();
+        bank.load(source);
+        return bank;
+    }
+
+    @Benchmark
+    public void save() {
+        loaded.save(target);
+    }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// The three listing orders:
+// - cold: every row sorted from scratch, as on the first listing after startup
+// - incremental: 1% new rows merged into an order that is already cached
+// - listing: Bank's own sorted listing once nothing has changed
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class SortBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+    public int accounts;
+
+    @Param({ "accountNumber", "name", "accountType" })
+    public String sortBy;
+
+    private BankHandle bank;
+    private List<Object> rows;
+    private List<Object> newRows;
+    private Object key;
+    private OrderHandle cold;
+    private OrderHandle warm;
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bank = SyntheticBook.loadedBank(accounts);
+        rows = new ArrayList<>(bank.accounts());
+        Collections.shuffle(rows, random);
+        newRows = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, accounts / 100); i++) {
+            newRows.add(OrderHandle.newAccount("new customer " + i, "City", i % 4 == 0 ? "current" : "savings",
+                    random.nextInt(), 1_000));
+        }
+        key = OrderHandle.key(sortBy);
+        bank.sort(sortBy);
+    }
+
+    @Setup(Level.Invocation)
+    public void freshOrders() {
+        cold = new OrderHandle();
+        warm = new OrderHandle();
+        for (Object row : rows) {
+            cold.add(row);
+            warm.add(row);
+        }
+        warm.sorted(key);
+        for (Object row : newRows) {
+            warm.add(row);
+        }
+    }
+
+    @Benchmark
+    public Object cold() {
+        return cold.sorted(key);
+    }
+
+    @Benchmark
+    public Object incremental() {
+        return warm.sorted(key);
+    }
+
+    @Benchmark
+    public Object listing() {
+        return bank.sort(sortBy);
+    }
+}
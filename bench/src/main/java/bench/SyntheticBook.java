@@ -0,0 +1,57 @@
+package bench;
+
+import java.io.*;
+import java.util.Random;
+
+// Deterministic synthetic account books in the accounts.txt format, cached in
+// the temp directory so large books are only generated once per machine.
+final class SyntheticBook {
+    static final int FIRST_ACCOUNT = 1_000_000;
+    private static final long STRIDE = 7919; // prime, so i * STRIDE mod n permutes 0..n-1 for n = 10^k
+    // Part of the cache file name. Bump it whenever the snapshot format or
+    // what this class generates changes, so no run picks up a stale book.
+    private static final int VERSION = 2;
+
+    private SyntheticBook() {
+    }
+
+    // Account number of the i-th record, 0 <= i < size. Records are written in
+    // this scrambled order so loading never sees a pre-sorted file.
+    static int accountNumber(int i, int size) {
+        return FIRST_ACCOUNT + (int) ((i * STRIDE) % size);
+    }
+
+    static File textFile(int size) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "bank-bench-v" + VERSION + "-" + size + ".txt");
+        if (file.length() > 0) {
+            return file;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        Random random = new Random(size);
+        char[] name = new char[12];
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(temp), 1 << 16))) {
+            out.println("#LSN 0");
+            for (int i = 0; i < size; i++) {
+                for (int c = 0; c < name.length; c++) {
+                    name[c] = c == 6 ? ' ' : (char) ('a' + random.nextInt(26));
+                }
+                out.println(name);
+                out.println("City " + random.nextInt(1000));
+                out.println(random.nextInt(4) == 0 ? "current" : "savings");
+                out.println(accountNumber(i, size));
+                out.println(1_000 + random.nextInt(100_000));
+                out.println("-----------------------#CUSTOMER#--------------------");
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not create " + file);
+        }
+        return file;
+    }
+
+    static BankHandle loadedBank(int size) throws IOException {
+        BankHandle bank = new BankHandle();
+        bank.load(textFile(size).getPath());
+        return bank;
+    }
+}
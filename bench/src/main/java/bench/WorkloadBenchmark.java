@@ -0,0 +1,91 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Deposit, withdraw and transfer against one shared Bank. Run it at several
+// thread counts (BenchmarkRunner does 1..N) to see how the locking scales.
+// With durable=true every operation also goes through the journal.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class WorkloadBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+    public int accounts;
+
+    @Param({ "false", "true" })
+    public boolean durable;
+
+    private BankHandle bank;
+    private File directory;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (durable) {
+            directory = Files.createTempDirectory("bank-bench").toFile();
+            File snapshot = new File(directory, "accounts.txt");
+            Files.copy(SyntheticBook.textFile(accounts).toPath(), snapshot.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            bank = new BankHandle();
+            bank.recover(snapshot.getPath(), new File(directory, "accounts.journal").getPath());
+        } else {
+            bank = SyntheticBook.loadedBank(accounts);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bank.shutdown();
+        if (directory != null) {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private int anyAccount(Cursor cursor) {
+        return SyntheticBook.FIRST_ACCOUNT + cursor.random.nextInt(accounts);
+    }
+
+    @Benchmark
+    public Object deposit(Cursor cursor) {
+        return bank.deposit(anyAccount(cursor), 1 + cursor.random.nextInt(100));
+    }
+
+    @Benchmark
+    public Object withdraw(Cursor cursor) {
+        return bank.withdraw(anyAccount(cursor), 1 + cursor.random.nextInt(100));
+    }
+
+    @Benchmark
+    public Object transfer(Cursor cursor) {
+        return bank.transfer(anyAccount(cursor), anyAccount(cursor), 1 + cursor.random.nextInt(100));
+    }
+
+    // 40% deposits, 40% withdrawals, 20% transfers.
+    @Benchmark
+    public Object mixed(Cursor cursor) {
+        int roll = cursor.random.nextInt(10);
+        if (roll < 4) {
+            return deposit(cursor);
+        } else if (roll < 8) {
+            return withdraw(cursor);
+        }
+        return transfer(cursor);
+    }
+}
@@ -0,0 +1,344 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Checks the parts of the journal and the mapped store that take no lock:
+//
+//   java ConcurrencyCheck [threads] [operations per thread]
+//
+// Journal: every thread logs deposits to an account of its own, numbered in
+// sequence, while another thread keeps syncing. LSNs must be unique and
+// increase for each thread, and replay must return every record once, each
+// account's records in the order they were logged.
+// Store: threads update balances of their own slots while another thread
+// appends accounts, which resizes the slot index, and another looks up the
+// appended accounts. Every lookup must find the right slot and every
+// balance must end as its thread last wrote it, also after reopening.
+// Bank: threads open accounts and deposit into them, so the store grows
+// under load; the balances must add up, also in a bank recovered from the
+// files as after a crash.
+// Prints every failed check and exits with status 1 if there was one.
+class ConcurrencyCheck {
+    // Accounts in the store before the appends start; it then has room for as many again.
+    private static final int STORED_ACCOUNTS = 1024;
+    // Accounts each thread opens in the bank check.
+    private static final int OPENED_PER_THREAD = 200;
+
+    private final int threads;
+    private final int operations;
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    ConcurrencyCheck(int threads, int operations) {
+        if (threads < 1 || operations < 1) {
+            throw new IllegalArgumentException("Threads and operations must be at least 1.");
+        }
+        this.threads = threads;
+        this.operations = operations;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        ConcurrencyCheck check = new ConcurrencyCheck(threads, operations);
+        File dir = Files.createTempDirectory("concurrency").toFile();
+        try {
+            check.journal(new File(dir, "accounts.journal"));
+            check.store(new File(dir, "accounts.dat"));
+            check.bank(new File(dir, "bank"));
+        } finally {
+            delete(dir);
+        }
+        if (!check.failures.isEmpty()) {
+            System.err.println(check.failures.size() + " check(s) failed:");
+            for (String failure : check.failures) {
+                System.err.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("All checks passed.");
+    }
+
+    void journal(File file) throws Exception {
+        long[][] lsns = new long[threads][operations];
+        try (Journal journal = new Journal(file.getPath())) {
+            journal.replay(0, new Tally(0, 0));
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+            try {
+                Future<?> syncer = pool.submit(() -> {
+                    while (running.get()) {
+                        journal.sync();
+                    }
+                    return null;
+                });
+                List<Future<?>> writers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    writers.add(pool.submit(() -> {
+                        for (int i = 0; i < operations; i++) {
+                            lsns[thread][i] = journal.logDeposit(thread, i + 1);
+                        }
+                        return null;
+                    }));
+                }
+                await("journal", writers);
+                running.set(false);
+                await("journal", Collections.singletonList(syncer));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        boolean[] seen = new boolean[threads * operations + 1];
+        int duplicates = 0;
+        int unordered = 0;
+        for (long[] thread : lsns) {
+            for (int i = 0; i < operations; i++) {
+                if (i > 0 && thread[i] <= thread[i - 1]) {
+                    unordered++;
+                }
+                if (thread[i] < 1 || thread[i] >= seen.length || seen[(int) thread[i]]) {
+                    duplicates++;
+                } else {
+                    seen[(int) thread[i]] = true;
+                }
+            }
+        }
+        check(duplicates == 0, "journal: " + duplicates + " LSN(s) handed out twice or out of range");
+        check(unordered == 0, "journal: " + unordered + " LSN(s) lower than the same thread's one before");
+
+        Tally tally = new Tally(threads, threads * operations);
+        try (Journal journal = new Journal(file.getPath())) {
+            journal.replay(0, tally);
+        }
+        check(tally.records == threads * operations,
+                "journal: replayed " + tally.records + " records, logged " + threads * operations);
+        check(tally.outOfOrder == 0,
+                "journal: " + tally.outOfOrder + " record(s) replayed out of their account's order");
+        check(tally.duplicates == 0, "journal: " + tally.duplicates + " LSN(s) replayed twice");
+        System.out.println("Journal: " + threads + " threads x " + operations + " records, replayed in order.");
+    }
+
+    // Counts replayed deposits, which must come in sequence for each account.
+    private static final class Tally implements Journal.Replayer {
+        private final long[] last;
+        private final boolean[] seen;
+        int records;
+        int outOfOrder;
+        int duplicates;
+
+        Tally(int accounts, int lsns) {
+            last = new long[accounts];
+            seen = new boolean[lsns + 1];
+        }
+
+        public void open(long lsn, String name, String address, String accountType, int accountNumber,
+                long balance) {
+        }
+
+        public void deposit(long lsn, int accountNumber, long amount) {
+            records++;
+            if (amount != last[accountNumber] + 1) {
+                outOfOrder++;
+            }
+            last[accountNumber] = amount;
+            if (lsn < seen.length && seen[(int) lsn]) {
+                duplicates++;
+            } else if (lsn < seen.length) {
+                seen[(int) lsn] = true;
+            }
+        }
+
+        public void withdraw(long lsn, int accountNumber, long amount) {
+        }
+
+        public void transfer(long lsn, int fromAccount, int toAccount, long amount) {
+        }
+
+        public void interest(long lsn, int period, int basisPoints) {
+        }
+    }
+
+    void store(File file) throws Exception {
+        List<BankAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < STORED_ACCOUNTS; i++) {
+            accounts.add(new BankAccount("Concurrency Check", "Stored " + i, "savings", number(i), 0));
+        }
+        MappedAccountStore.create(file.getPath(), accounts, 0, 0);
+        AtomicInteger appended = new AtomicInteger(STORED_ACCOUNTS);
+        AtomicInteger wrongSlots = new AtomicInteger();
+        try (MappedAccountStore store = MappedAccountStore.open(file.getPath())) {
+            AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(threads + 2);
+            try {
+                Future<?> appender = pool.submit(() -> {
+                    while (!store.isFull()) {
+                        int i = appended.get();
+                        store.append(new BankAccount("Concurrency Check", "Appended " + i, "current", number(i), 0), 0);
+                        appended.incrementAndGet();
+                    }
+                    return null;
+                });
+                Future<?> reader = pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        int i = random.nextInt(appended.get());
+                        if (store.slotOf(number(i)) != i || store.accountNumberAt(i) != number(i)) {
+                            wrongSlots.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+                List<Future<?>> writers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    writers.add(pool.submit(() -> {
+                        for (int i = 1; i <= operations; i++) {
+                            for (int slot = thread; slot < STORED_ACCOUNTS; slot += threads) {
+                                store.updateBalance(slot, i, i);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                await("store", writers);
+                await("store", Collections.singletonList(appender));
+                running.set(false);
+                await("store", Collections.singletonList(reader));
+            } finally {
+                pool.shutdown();
+            }
+            check(wrongSlots.get() == 0, "store: " + wrongSlots.get() + " lookup(s) found the wrong slot");
+            checkStore("store", store, appended.get());
+        }
+        try (MappedAccountStore reopened = MappedAccountStore.open(file.getPath())) {
+            checkStore("reopened store", reopened, appended.get());
+        }
+        System.out.println("Store: " + threads + " threads x " + operations + " balance updates, "
+                + (appended.get() - STORED_ACCOUNTS) + " appends alongside.");
+    }
+
+    private void checkStore(String stage, MappedAccountStore store, int accounts) {
+        int wrong = 0;
+        for (int slot = 0; slot < STORED_ACCOUNTS; slot++) {
+            if (store.balanceAt(slot) != operations || store.lsnAt(slot) != operations) {
+                wrong++;
+            }
+        }
+        check(wrong == 0, stage + ": " + wrong + " balance(s) not as last written");
+        int missing = 0;
+        for (int i = 0; i < accounts; i++) {
+            if (store.slotOf(number(i)) != i) {
+                missing++;
+            }
+        }
+        check(store.size() == accounts, stage + ": holds " + store.size() + " accounts, expected " + accounts);
+        check(missing == 0, stage + ": " + missing + " account(s) not found at their slot");
+    }
+
+    private static int number(int i) {
+        return 100_000 + i;
+    }
+
+    void bank(File dir) throws Exception {
+        if (!dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String data = new File(dir, "accounts.dat").getPath();
+        String journal = new File(dir, "accounts.journal").getPath();
+        MappedAccountStore.create(data, Collections.emptyList(), 0, 0);
+        Bank bank = new Bank();
+        bank.recoverFromStore(data, journal, 0);
+        int[][] numbers = new int[threads][OPENED_PER_THREAD];
+        int deposits = Math.max(1, operations / OPENED_PER_THREAD);
+        LongAdder expected = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers.add(pool.submit(() -> {
+                    for (int i = 0; i < OPENED_PER_THREAD; i++) {
+                        numbers[thread][i] = bank.openAccount("Concurrency Check", "Thread " + thread, "current", 1);
+                        expected.increment();
+                        // Deposits into accounts opened so far, while other threads open theirs.
+                        for (int j = 0; j <= i; j += Math.max(1, i / deposits)) {
+                            if (bank.deposit(numbers[thread][j], 1) == Bank.Status.OK) {
+                                expected.increment();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            await("bank", workers);
+        } finally {
+            pool.shutdown();
+        }
+        checkBank("bank", bank, numbers, expected.sum());
+        // Everything acknowledged is on disk; the bank is then abandoned, not shut down.
+        bank.sync();
+        Bank recovered = new Bank();
+        recovered.recoverFromStore(data, journal, 0);
+        checkBank("recovered bank", recovered, numbers, expected.sum());
+        recovered.shutdown();
+        System.out.println("Bank: " + threads + " threads opening " + OPENED_PER_THREAD
+                + " accounts each, store grown under load.");
+    }
+
+    // Every account must exist and the balances must come to `expected`.
+    private void checkBank(String stage, Bank bank, int[][] numbers, long expected) {
+        long total = 0;
+        int missing = 0;
+        for (int[] thread : numbers) {
+            for (int number : thread) {
+                OptionalLong balance = bank.getBalance(number);
+                if (balance.isPresent()) {
+                    total += balance.getAsLong();
+                } else {
+                    missing++;
+                }
+            }
+        }
+        check(missing == 0, stage + ": " + missing + " account(s) missing");
+        check(total == expected, stage + ": balances add up to " + total + ", expected " + expected);
+    }
+
+    private void await(String stage, List<Future<?>> tasks) throws InterruptedException {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                failures.add(stage + ": a thread failed: " + e.getCause());
+            }
+        }
+    }
+
+    private void check(boolean condition, String failure) {
+        if (!condition) {
+            failures.add(failure);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
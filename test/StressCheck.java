@@ -0,0 +1,319 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Checks that money is conserved under concurrent load and across a crash,
+// once for each way the bank can keep its accounts:
+//
+//   java StressCheck [threads] [operations per thread]
+//
+// Every run opens a book of accounts in a fresh directory, then has each
+// thread apply random deposits, withdrawals and transfers while another
+// thread keeps asking for holdings reports and the main thread credits one
+// month of interest. Afterwards the balances must add up to the opening
+// deposits plus everything that was accepted, holdings() must reconcile, and
+// every account's ledger entries must add up to its balance.
+// A second Bank is then recovered from the same files without the first one
+// having been shut down, as after a crash, and must find the same totals;
+// so must a third, once the second has been shut down and its journal removed.
+// Prints every failed check and exits with status 1 if there was one.
+class StressCheck {
+    private static final int ACCOUNTS = 1000;
+    private static final long OPENING_DEPOSIT = Money.ofMajor(1000);
+    // Largest single deposit, withdrawal or transfer, in minor units.
+    private static final int MAX_AMOUNT = 10_000;
+    private static final int INTEREST_PERIOD = 202601;
+    // The smallest cache the bank accepts, so most operations miss it.
+    private static final int CACHED_ACCOUNTS = 128;
+
+    enum Mode {
+        SNAPSHOT, SHARDS, STORE, CACHE
+    }
+
+    private final int threads;
+    private final int operations;
+    private final List<String> failures = new ArrayList<>();
+
+    StressCheck(int threads, int operations) {
+        if (threads < 1 || operations < 1) {
+            throw new IllegalArgumentException("Threads and operations must be at least 1.");
+        }
+        this.threads = threads;
+        this.operations = operations;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        StressCheck check = new StressCheck(threads, operations);
+        for (Mode mode : Mode.values()) {
+            check.run(mode);
+            check.runInterestOverflow(mode);
+        }
+        if (!check.failures.isEmpty()) {
+            System.err.println(check.failures.size() + " check(s) failed:");
+            for (String failure : check.failures) {
+                System.err.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("All checks passed.");
+    }
+
+    void run(Mode mode) throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("stress-" + mode.name().toLowerCase()).toFile();
+        try {
+            Bank bank = open(mode, dir);
+            int[] numbers = new int[ACCOUNTS];
+            long[] opened = new long[ACCOUNTS];
+            Arrays.fill(opened, OPENING_DEPOSIT);
+            for (int i = 0; i < ACCOUNTS; i++) {
+                numbers[i] = bank.openAccount("Stress Check", "Account " + i, i % 2 == 0 ? "savings" : "current",
+                        OPENING_DEPOSIT);
+            }
+            long expected = ACCOUNTS * OPENING_DEPOSIT + load(mode, bank, numbers);
+            verify(mode + " after load", bank, numbers, opened, expected);
+
+            // Everything acknowledged is on disk; the bank is then abandoned, not shut down.
+            bank.sync();
+            Bank recovered = open(mode, dir);
+            verify(mode + " after crash recovery", recovered, numbers, opened, expected);
+            recovered.shutdown();
+
+            // Shutdown compacts into the files the bank was recovered from, so they alone must hold the totals.
+            String[] segments = dir.list((parent, name) -> name.startsWith("accounts.journal."));
+            if (segments.length > 0) {
+                failures.add(mode + ": journal segments left after shutdown: " + String.join(", ", segments));
+            }
+            Files.delete(new File(dir, "accounts.journal").toPath());
+            Bank compacted = open(mode, dir);
+            verify(mode + " from compacted files", compacted, numbers, opened, expected);
+            compacted.shutdown();
+            System.out.println(mode + ": " + threads + " threads x " + operations + " operations, "
+                    + Money.format(expected) + " conserved.");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // A savings balance too large to take interest must be left unchanged by
+    // an interest run, both when the run is replayed from the journal on
+    // startup and when it is applied live, and the bank must still start.
+    void runInterestOverflow(Mode mode) throws IOException {
+        File dir = Files.createTempDirectory("stress-interest-" + mode.name().toLowerCase()).toFile();
+        try {
+            Bank bank = open(mode, dir);
+            long large = Long.MAX_VALUE / 2;
+            int[] numbers = { bank.openAccount("Stress Check", "Large", "savings", large),
+                    bank.openAccount("Stress Check", "Small", "savings", OPENING_DEPOSIT) };
+            long[] opened = { large, OPENING_DEPOSIT };
+            bank.sync();
+            // As if the process died after journaling a run but before applying it.
+            journalInterest(new File(dir, "accounts.journal"), INTEREST_PERIOD);
+
+            long small = Bank.withInterest(OPENING_DEPOSIT, Bank.INTEREST_BASIS_POINTS);
+            Bank replayed = open(mode, dir);
+            check(replayed.getBalance(numbers[0]).orElse(0) == large,
+                    mode + ": replayed interest changed a balance too large to take it");
+            verify(mode + " after replaying interest", replayed, numbers, opened, large + small);
+
+            try {
+                replayed.accrueInterest(INTEREST_PERIOD + 1);
+            } catch (ArithmeticException e) {
+                failures.add(mode + ": interest run failed: " + e);
+            }
+            small = Bank.withInterest(small, Bank.INTEREST_BASIS_POINTS);
+            verify(mode + " after a live interest run", replayed, numbers, opened, large + small);
+            replayed.shutdown();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void journalInterest(File file, int period) throws IOException {
+        try (Journal journal = new Journal(file.getPath())) {
+            journal.replay(0, new Journal.Replayer() {
+                public void open(long lsn, String name, String address, String accountType, int accountNumber,
+                        long balance) {
+                }
+
+                public void deposit(long lsn, int accountNumber, long amount) {
+                }
+
+                public void withdraw(long lsn, int accountNumber, long amount) {
+                }
+
+                public void transfer(long lsn, int fromAccount, int toAccount, long amount) {
+                }
+
+                public void interest(long lsn, int period, int basisPoints) {
+                }
+            });
+            journal.logInterest(period, Bank.INTEREST_BASIS_POINTS);
+        }
+    }
+
+    private static Bank open(Mode mode, File dir) throws IOException {
+        String journal = new File(dir, "accounts.journal").getPath();
+        Bank bank = new Bank();
+        switch (mode) {
+            case SNAPSHOT:
+                bank.recover(new File(dir, "accounts.txt").getPath(), journal);
+                break;
+            case SHARDS:
+                File shards = new File(dir, "shards");
+                if (!shards.exists()) {
+                    ShardedSnapshot empty = ShardedSnapshot.create(shards, 4);
+                    empty.flush(0, 0, new AccountTable().snapshot(), empty.takeDirty());
+                }
+                bank.recover(shards.getPath(), journal);
+                break;
+            default:
+                File store = new File(dir, "accounts.dat");
+                if (!store.exists()) {
+                    MappedAccountStore.create(store.getPath(), Collections.emptyList(), 0, 0);
+                }
+                bank.recoverFromStore(store.getPath(), journal, mode == Mode.CACHE ? CACHED_ACCOUNTS : 0);
+        }
+        return bank;
+    }
+
+    // Runs the workload and returns the net change in money it caused.
+    private long load(Mode mode, Bank bank, int[] numbers) throws InterruptedException {
+        LongAdder net = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < operations; i++) {
+                    int account = numbers[random.nextInt(numbers.length)];
+                    long amount = 1 + random.nextInt(MAX_AMOUNT);
+                    int kind = random.nextInt(4);
+                    if (kind == 0) {
+                        if (bank.deposit(account, amount) == Bank.Status.OK) {
+                            net.add(amount);
+                        }
+                    } else if (kind == 1) {
+                        if (bank.withdraw(account, amount) == Bank.Status.OK) {
+                            net.add(-amount);
+                        }
+                    } else {
+                        bank.transfer(account, numbers[random.nextInt(numbers.length)], amount);
+                    }
+                }
+                return null;
+            }));
+        }
+        Future<Integer> reports = pool.submit(() -> {
+            int unreconciled = 0;
+            while (running.get()) {
+                if (!bank.holdings().reconciled()) {
+                    unreconciled++;
+                }
+            }
+            return unreconciled;
+        });
+        try {
+            net.add(bank.accrueInterest(INTEREST_PERIOD).totalInterest);
+        } catch (IOException e) {
+            failures.add(mode + ": interest run failed: " + e.getMessage());
+        }
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            running.set(false);
+            int unreconciled = reports.get();
+            check(unreconciled == 0,
+                    mode + ": " + unreconciled + " holdings report(s) taken under load did not reconcile");
+        } catch (ExecutionException e) {
+            failures.add(mode + ": worker failed: " + e.getCause());
+        } finally {
+            running.set(false);
+            pool.shutdown();
+        }
+        return net.sum();
+    }
+
+    // The balances, a listing and a holdings report must all come to `expected`,
+    // searches must find every account, and no ledger entry may be lost or doubled.
+    private void verify(String stage, Bank bank, int[] numbers, long[] opened, long expected) {
+        long total = 0;
+        int missing = 0;
+        int unbalanced = 0;
+        for (int i = 0; i < numbers.length; i++) {
+            OptionalLong balance = bank.getBalance(numbers[i]);
+            if (balance.isPresent()) {
+                total += balance.getAsLong();
+                if (opened[i] + ledgerTotal(bank, numbers[i]) != balance.getAsLong()) {
+                    unbalanced++;
+                }
+            } else {
+                missing++;
+            }
+        }
+        check(missing == 0, stage + ": " + missing + " account(s) missing");
+        check(unbalanced == 0, stage + ": " + unbalanced + " account(s) whose ledger does not add up to the balance");
+        check(total == expected, stage + ": balances add up to " + Money.format(total) + ", expected "
+                + Money.format(expected));
+
+        long listed = 0;
+        List<BankAccount> listing = bank.sortByAccountNumber();
+        for (BankAccount account : listing) {
+            listed += account.balance;
+        }
+        check(listing.size() == numbers.length && listed == expected, stage + ": listing shows " + listing.size()
+                + " accounts holding " + Money.format(listed));
+
+        int found = bank.findByAccountType("savings").size() + bank.findByAccountType("current").size();
+        check(found == numbers.length, stage + ": searches by type found " + found + " accounts");
+
+        Holdings holdings = bank.holdings();
+        check(holdings.reconciled() && holdings.total == expected, stage + ": holdings report\n" + holdings);
+    }
+
+    // The net of every ledger entry of the account.
+    private long ledgerTotal(Bank bank, int number) {
+        long[] net = new long[1];
+        try {
+            bank.forEachTransaction(number, Long.MIN_VALUE, Long.MAX_VALUE, transaction -> {
+                boolean credit = transaction.type == Journal.DEPOSIT || transaction.type == Journal.INTEREST
+                        || (transaction.type == Journal.TRANSFER && transaction.counterparty == number);
+                net[0] += credit ? transaction.amount : -transaction.amount;
+            });
+        } catch (IOException e) {
+            failures.add("ledger of " + number + " unreadable: " + e.getMessage());
+        }
+        return net[0];
+    }
+
+    private void check(boolean condition, String failure) {
+        if (!condition) {
+            failures.add(failure);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}